@@ -1,13 +1,94 @@
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Base64;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 public class CovidReader
 {
   /**
@@ -184,20 +265,459 @@ public class CovidReader
   }
 
   /**
-   * Topology data
+   * Hand-written Gson adapters for the classes above, so parsing doesn't go through reflection
+   * (and works the same under native-image / AOT).  Fields we never read (GroupKeys, Limits,
+   * Expressions, Msg, ...) are skipped without being bound.  Writing (which we only do for
+   * debugging) still goes through Gson's reflective adapters.  Use JsonBinding.getGson()
    */
-  static private TopologyJson s_topologyJson;
+  static public class JsonBinding
+  {
+    @FunctionalInterface
+    private interface ValueReader<T>
+    {
+      T read(JsonReader pReader) throws IOException;
+    }
 
-  /**
-   * Used to translate county name -> ID -> topology
-   */
-  static private JobsDataJson s_jobsDataJson;
+    /**
+     * Reads pType with the hand-written pValueReader; writing goes to the adapter Gson would
+     * have used without this one (the reflective one), so the classes still serialise normally
+     */
+    static private <C> TypeAdapterFactory adapter(Class<C> pType, ValueReader<C> pValueReader)
+    {
+      return new TypeAdapterFactory()
+      {
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson pGson, TypeToken<T> pTypeToken)
+        {
+          if (pTypeToken.getRawType() != pType) return null;
 
-  /**
-   * Track map dimensions
-   */
-  static private int s_maxX = 0;
-  static private int s_maxY = 0;
+          TypeAdapter<T> writer = pGson.getDelegateAdapter(this, pTypeToken);
+          return new TypeAdapter<T>()
+          {
+            public T read(JsonReader pReader) throws IOException
+            {
+              if (pReader.peek() == JsonToken.NULL)
+              {
+                pReader.nextNull();
+                return null;
+              }
+              return (T) pValueReader.read(pReader);
+            }
+
+            public void write(JsonWriter pWriter, T pValue) throws IOException
+            {
+              writer.write(pWriter, pValue);
+            }
+          };
+        }
+      };
+    }
+
+    static private final Gson s_gson = new GsonBuilder()
+      .registerTypeAdapterFactory(adapter(TopologyJson.class, JsonBinding::readTopology))
+      .registerTypeAdapterFactory(adapter(JobsDataJson.class, JsonBinding::readJobsData))
+      .create();
+
+    static public Gson getGson() { return s_gson; }
+
+    static private <T> T[] readArray(JsonReader pReader, ValueReader<T> pElementReader, IntFunction<T[]> pArrayMaker) throws IOException
+    {
+      if (pReader.peek() == JsonToken.NULL)
+      {
+        pReader.nextNull();
+        return null;
+      }
+
+      List<T> values = new ArrayList<>();
+      pReader.beginArray();
+      while (pReader.hasNext())
+      {
+        values.add(pElementReader.read(pReader));
+      }
+      pReader.endArray();
+      return values.toArray(pArrayMaker.apply(values.size()));
+    }
+
+    static private String readString(JsonReader pReader) throws IOException
+    {
+      if (pReader.peek() == JsonToken.NULL)
+      {
+        pReader.nextNull();
+        return null;
+      }
+      return pReader.nextString();
+    }
+
+    /**
+     * [x, y] pairs and the like; grows a primitive buffer instead of boxing
+     */
+    static private int[] readInts(JsonReader pReader) throws IOException
+    {
+      int[] values = new int[4];
+      int count = 0;
+
+      pReader.beginArray();
+      while (pReader.hasNext())
+      {
+        if (count == values.length) values = Arrays.copyOf(values, count * 2);
+        values[count++] = pReader.nextInt();
+      }
+      pReader.endArray();
+
+      return (count == values.length) ? values : Arrays.copyOf(values, count);
+    }
+
+    static private double[] readDoubles(JsonReader pReader) throws IOException
+    {
+      double[] values = new double[2];
+      int count = 0;
+
+      pReader.beginArray();
+      while (pReader.hasNext())
+      {
+        if (count == values.length) values = Arrays.copyOf(values, count * 2);
+        values[count++] = pReader.nextDouble();
+      }
+      pReader.endArray();
+
+      return (count == values.length) ? values : Arrays.copyOf(values, count);
+    }
+
+    static private int[][][] readInts3(JsonReader pReader) throws IOException
+    {
+      return readArray(pReader, reader -> readArray(reader, JsonBinding::readInts, int[][]::new), int[][][]::new);
+    }
+
+    static public TopologyJson readTopology(JsonReader pReader) throws IOException
+    {
+      TopologyJson topology = new TopologyJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "type":      topology.type = readString(pReader); break;
+          case "arcs":      topology.arcs = readInts3(pReader); break;
+          case "objects":   topology.objects = readObjects(pReader); break;
+          case "transform": topology.transform = readTransform(pReader); break;
+          default:          pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return topology;
+    }
+
+    static private ObjectsJson readObjects(JsonReader pReader) throws IOException
+    {
+      ObjectsJson objects = new ObjectsJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        if (pReader.nextName().equals("counties20m")) objects.counties20m = readCounties(pReader);
+        else pReader.skipValue();
+      }
+      pReader.endObject();
+      return objects;
+    }
+
+    static private CountiesJson readCounties(JsonReader pReader) throws IOException
+    {
+      CountiesJson counties = new CountiesJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "type":       counties.type = readString(pReader); break;
+          case "geometries": counties.geometries = readArray(pReader, JsonBinding::readGeometry, GeometryJson[]::new); break;
+          default:           pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return counties;
+    }
+
+    static public GeometryJson readGeometry(JsonReader pReader) throws IOException
+    {
+      GeometryJson geometry = new GeometryJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "type":       geometry.type = readString(pReader); break;
+          case "arcs":       geometry.arcs = readInts3(pReader); break;
+          case "properties": geometry.properties = readProperties(pReader); break;
+          default:           pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return geometry;
+    }
+
+    static private PropertiesJson readProperties(JsonReader pReader) throws IOException
+    {
+      PropertiesJson properties = new PropertiesJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "GEOID":   properties.GEOID = readString(pReader); break;
+          case "STATEFP": properties.STATEFP = readString(pReader); break;
+          default:        pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return properties;
+    }
+
+    static public TransformJson readTransform(JsonReader pReader) throws IOException
+    {
+      TransformJson transform = new TransformJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "scale":     transform.scale = readDoubles(pReader); break;
+          case "translate": transform.translate = readDoubles(pReader); break;
+          default:          pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return transform;
+    }
+
+    static public JobsDataJson readJobsData(JsonReader pReader) throws IOException
+    {
+      JobsDataJson jobsData = new JobsDataJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "jobIds":  jobsData.jobIds = readArray(pReader, JsonBinding::readString, String[]::new); break;
+          case "results": jobsData.results = readArray(pReader, JsonBinding::readResults, ResultsDataJson[]::new); break;
+          default:        pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return jobsData;
+    }
+
+    static private final String[] s_countyRowPath = { "results", "[]", "result", "data", "dsr", "DS", "[]", "PH", "[]", "DM0", "[]" };
+
+    /**
+     * Hands each DM0 row of a JobsDataJson to pRows as it's read, without binding the rest: the
+     * same rows, in the same order, as Geography.getCountyRows()
+     */
+    static public void readCountyRows(JsonReader pReader, Consumer<DM0Json> pRows) throws IOException
+    {
+      readCountyRows(pReader, 0, pRows);
+    }
+
+    static private void readCountyRows(JsonReader pReader, int pDepth, Consumer<DM0Json> pRows) throws IOException
+    {
+      if (pReader.peek() == JsonToken.NULL)
+      {
+        pReader.nextNull();
+      }
+      else if (pDepth == s_countyRowPath.length)
+      {
+        pRows.accept(readDM0(pReader));
+      }
+      else if (s_countyRowPath[pDepth].equals("[]"))
+      {
+        pReader.beginArray();
+        while (pReader.hasNext()) readCountyRows(pReader, pDepth + 1, pRows);
+        pReader.endArray();
+      }
+      else
+      {
+        pReader.beginObject();
+        while (pReader.hasNext())
+        {
+          if (pReader.nextName().equals(s_countyRowPath[pDepth])) readCountyRows(pReader, pDepth + 1, pRows);
+          else pReader.skipValue();
+        }
+        pReader.endObject();
+      }
+    }
+
+    static private ResultsDataJson readResults(JsonReader pReader) throws IOException
+    {
+      ResultsDataJson results = new ResultsDataJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "jobId":  results.jobId = readString(pReader); break;
+          case "result": results.result = readResultData(pReader); break;
+          default:       pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return results;
+    }
+
+    static private ResultDataJson readResultData(JsonReader pReader) throws IOException
+    {
+      ResultDataJson resultData = new ResultDataJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        if (pReader.nextName().equals("data")) resultData.data = readQueryData(pReader);
+        else pReader.skipValue();
+      }
+      pReader.endObject();
+      return resultData;
+    }
+
+    static private QueryDataJson readQueryData(JsonReader pReader) throws IOException
+    {
+      QueryDataJson queryData = new QueryDataJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "descriptor": queryData.descriptor = readDescriptor(pReader); break;
+          case "dsr":        queryData.dsr = readDsr(pReader); break;
+          default:           pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return queryData;
+    }
+
+    /**
+     * Only the Select list (minus GroupKeys) and version; Expressions and Limits are skipped
+     */
+    static private DescriptorJson readDescriptor(JsonReader pReader) throws IOException
+    {
+      DescriptorJson descriptor = new DescriptorJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "Select":  descriptor.Select = readArray(pReader, JsonBinding::readSelect, SelectJson[]::new); break;
+          case "Version": descriptor.Version = pReader.nextInt(); break;
+          default:        pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return descriptor;
+    }
+
+    static private SelectJson readSelect(JsonReader pReader) throws IOException
+    {
+      SelectJson select = new SelectJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "Kind":   select.Kind = pReader.nextInt(); break;
+          case "Depth":  select.Depth = pReader.nextInt(); break;
+          case "Name":   select.Name = readString(pReader); break;
+          case "Value":  select.Value = readString(pReader); break;
+          case "Format": select.Format = readString(pReader); break;
+          default:       pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return select;
+    }
+
+    static private DsrJson readDsr(JsonReader pReader) throws IOException
+    {
+      DsrJson dsr = new DsrJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "Version":      dsr.Version = pReader.nextInt(); break;
+          case "MinorVersion": dsr.MinorVersion = pReader.nextInt(); break;
+          case "DS":           dsr.DS = readArray(pReader, JsonBinding::readDS, DSJson[]::new); break;
+          default:             pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return dsr;
+    }
+
+    static private DSJson readDS(JsonReader pReader) throws IOException
+    {
+      DSJson ds = new DSJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "HAD": ds.HAD = pReader.nextBoolean(); break;
+          case "IC":  ds.IC = pReader.nextBoolean(); break;
+          case "N":   ds.N = readString(pReader); break;
+          case "PH":  ds.PH = readArray(pReader, JsonBinding::readPH, PHJson[]::new); break;
+          default:    pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return ds;
+    }
+
+    static private PHJson readPH(JsonReader pReader) throws IOException
+    {
+      PHJson ph = new PHJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        if (pReader.nextName().equals("DM0")) ph.DM0 = readArray(pReader, JsonBinding::readDM0, DM0Json[]::new);
+        else pReader.skipValue();
+      }
+      pReader.endObject();
+      return ph;
+    }
+
+    static private DM0Json readDM0(JsonReader pReader) throws IOException
+    {
+      DM0Json dm0 = new DM0Json();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "C": dm0.C = readArray(pReader, JsonBinding::readString, String[]::new); break;
+          case "S": dm0.S = readArray(pReader, JsonBinding::readS, SJson[]::new); break;
+          case "R": dm0.R = pReader.nextInt(); break;
+          case "Ø": dm0.Ø = pReader.nextInt(); break;
+          default:  pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return dm0;
+    }
+
+    static private SJson readS(JsonReader pReader) throws IOException
+    {
+      SJson s = new SJson();
+      pReader.beginObject();
+      while (pReader.hasNext())
+      {
+        switch (pReader.nextName())
+        {
+          case "N": s.N = readString(pReader); break;
+          case "T": s.T = pReader.nextInt(); break;
+          default:  pReader.skipValue();
+        }
+      }
+      pReader.endObject();
+      return s;
+    }
+  }
 
   /**
    * Simple 2D transform values (scale, translate, etc)
@@ -234,9 +754,6 @@ public class CovidReader
     {
       _x = pX;
       _y = pY;
-
-      if (_x > s_maxX) s_maxX = _x;
-      if (_y > s_maxY) s_maxY = _y;
     }
 
     public Point(int[] pPoint)
@@ -261,7 +778,7 @@ public class CovidReader
 
     public int hashCode()
     {
-      return getX() + getY();
+      return VertexIndex.hash(VertexIndex.pack(getX(), getY()));
     }
 
     public boolean equals(Object pOther)
@@ -312,7 +829,26 @@ public class CovidReader
     private List<Arc> _arcs;
     public List<Arc> getArcs() { return _arcs; }
 
-    public CountyPolygon(GeometryJson pGeometryJson)
+    /**
+     * Area, centroid and a label point that's guaranteed to be inside the county, all in
+     * topology units; worked out once here so symbol layers don't need the vertices per frame
+     */
+    private double _area;
+    private double _centroidX;
+    private double _centroidY;
+    private double _labelX;
+    private double _labelY;
+
+    public double getArea() { return _area; }
+    public double getCentroidX() { return _centroidX; }
+    public double getCentroidY() { return _centroidY; }
+    public double getLabelX() { return _labelX; }
+    public double getLabelY() { return _labelY; }
+
+    /**
+     * @param pArcs the topology's arcs, which pGeometryJson refers to by index
+     */
+    public CountyPolygon(GeometryJson pGeometryJson, List<Arc> pArcs, VertexIndex pVertexIndex)
     {
       _geometryJson = pGeometryJson;
       _countyId = Integer.valueOf(pGeometryJson.properties.GEOID);
@@ -325,6 +861,7 @@ public class CovidReader
         for (int loopInner = 0; loopInner < arcs.length; ++loopInner)
         {
           List<Point> points = new ArrayList<>();
+          int lastId = -1;
 
           for (int pieces = 0; pieces < arcs[loopInner].length; ++pieces)
           {
@@ -334,684 +871,7118 @@ public class CovidReader
             // the indicated arc, *but* (and this threw me for a while), you need to subtract 1
             // from the resulting absolute value; this is so you can reverse arc #0 if need be
             // (you'd specify -1 -> |-1| = 1 -> 1-1 = 0; likewise -53 -> |-53| = 53 -> 53 - 1 = 52,
-            // so '-53' means reverse arc 52)
+            // so '-53' means reverse arc 52); ~piece is that same -piece - 1
 
-            Arc arc = (piece < 0) ? s_arcList.get((int) Math.abs(piece) - 1) : s_arcList.get(piece);
+            int arcIndex = (piece < 0) ? ~piece : piece;
+            List<Point> arcPoints = pArcs.get(arcIndex).getPoints();
+            int[] ids = pVertexIndex.getArcVertexIds(arcIndex);
 
-            Arc temp = new Arc(arc, piece < 0);
-            for (Point point : temp.getPoints())
+            // Walk the shared arc in whichever direction we need; consecutive duplicates are
+            // spotted by vertex id rather than by comparing Points
+            for (int step = 0; step < ids.length; ++step)
             {
-              if ((points.size() == 0) || !points.get(points.size()-1).equals(point))
+              int index = (piece < 0) ? ids.length - 1 - step : step;
+              if ((lastId < 0) || (ids[index] != lastId))
               {
-                points.add(point);
+                points.add(arcPoints.get(index));
+                lastId = ids[index];
               }
             }
           }
           getArcs().add(new Arc(points));
         }
       }
+
+      measure();
     }
 
-    public String toString()
+    /**
+     * Shoelace formula per ring; holes wind the other way so their signed area subtracts
+     */
+    private void measure()
     {
-      StringBuilder builder = new StringBuilder();
+      double signedArea = 0.0;
+      double momentX = 0.0;
+      double momentY = 0.0;
+      Arc largest = null;
+      double largestArea = -1.0;
+
       for (Arc arc : getArcs())
       {
-        builder.append(arc.toString()).append("-");
-      }
-      return builder.toString();
-    }
-  }
+        List<Point> points = arc.getPoints();
+        if ((points == null) || (points.size() < 3)) continue;
 
-  // Uses starting point and delta to get list of points.
-  static public class Arc
-  {
-    private Point _start;
-    private List<PointDelta> _deltas;
-    private List<Point> _points;
+        double ringArea = 0.0;
+        double ringMomentX = 0.0;
+        double ringMomentY = 0.0;
 
-    public Point getStart() { return _start; }
-    public List<PointDelta> getDeltas() { return _deltas; }
-    public List<Point> getPoints() { return _points; }
+        for (int loop = 0; loop < points.size(); ++loop)
+        {
+          Point current = points.get(loop);
+          Point next = points.get((loop + 1) % points.size());
+          double cross = (double) current.getX() * next.getY() - (double) next.getX() * current.getY();
 
-    public Arc(Arc pArc, boolean pReverse)
-    {
-      _start = new Point(pReverse ? pArc.getPoints().get(pArc.getPoints().size() - 1) : pArc.getPoints().get(0));
+          ringArea += cross;
+          ringMomentX += (current.getX() + next.getX()) * cross;
+          ringMomentY += (current.getY() + next.getY()) * cross;
+        }
 
-      _points = new ArrayList<>();
+        signedArea += ringArea / 2.0;
+        momentX += ringMomentX / 6.0;
+        momentY += ringMomentY / 6.0;
 
-      if (pReverse)
-      {
-        for (Point point : pArc.getPoints())
+        if (Math.abs(ringArea) > largestArea)
         {
-          _points.add(0, point);
+          largestArea = Math.abs(ringArea);
+          largest = arc;
         }
       }
-      else
+
+      if ((largest == null) || (signedArea == 0.0))
       {
-        for (Point point : pArc.getPoints())
+        Point first = getArcs().isEmpty() || (getArcs().get(0).getPoints() == null) ? null : getArcs().get(0).getPoints().get(0);
+        _centroidX = _labelX = (first == null) ? 0 : first.getX();
+        _centroidY = _labelY = (first == null) ? 0 : first.getY();
+        return;
+      }
+
+      _area = Math.abs(signedArea);
+      _centroidX = momentX / signedArea;
+      _centroidY = momentY / signedArea;
+
+      // Label point: along the horizontal line through the centroid (nudged off the integer
+      // grid so it never passes exactly through a vertex), the middle of the widest stretch
+      // that's inside the largest ring
+      double scanY = Math.floor(_centroidY) + 0.5;
+      List<Double> crossings = new ArrayList<>();
+      List<Point> points = largest.getPoints();
+
+      for (int loop = 0; loop < points.size(); ++loop)
+      {
+        Point current = points.get(loop);
+        Point next = points.get((loop + 1) % points.size());
+
+        if ((current.getY() < scanY) != (next.getY() < scanY))
         {
-          _points.add(point);
+          double t = (scanY - current.getY()) / (next.getY() - current.getY());
+          crossings.add(current.getX() + t * (next.getX() - current.getX()));
         }
       }
-    }
 
-    public Arc(List<Point> pPoints)
-    {
-      if (pPoints.isEmpty()) return;
-      _start = pPoints.get(0);
+      crossings.sort(null);
 
-      _points = new ArrayList<>();
+      _labelX = _centroidX;
+      _labelY = _centroidY;
+      double widest = -1.0;
 
-      for (Point point : pPoints)
+      for (int loop = 0; loop + 1 < crossings.size(); loop += 2)
       {
-        _points.add(point);
+        double span = crossings.get(loop + 1) - crossings.get(loop);
+        if (span > widest)
+        {
+          widest = span;
+          _labelX = (crossings.get(loop) + crossings.get(loop + 1)) / 2.0;
+          _labelY = scanY;
+        }
       }
     }
 
-    public Arc(int[][] pArcs)
-    {
-      _start = new Point(pArcs[0]);
-
-      _deltas = new ArrayList<>();
-      for (int delta = 1; delta < pArcs.length; ++delta)
-      {
-        _deltas.add(new PointDelta(pArcs[delta]));
-      }
-
-      _points = new ArrayList<>();
-
-      Point currentPoint = new Point(getStart());
-      _points.add(currentPoint);
-
-      for (PointDelta delta : getDeltas())
-      {
-        currentPoint = new Point(currentPoint, delta);
-        _points.add(currentPoint);
-      }
-    }
-
-    public String toString()
+    public String toString()
     {
       StringBuilder builder = new StringBuilder();
-
-      if (getPoints() != null)
+      for (Arc arc : getArcs())
       {
-        for (Point point : getPoints())
-        {
-          builder.append(point.toString()).append(" ");
-        }
+        builder.append(arc.toString()).append("-");
       }
-
       return builder.toString();
     }
   }
 
   /**
-   * County info; since we're loading historical data separately, *most* of this is
-   * ignored
+   * Open-addressing map from a packed (x, y) vertex to a dense int id, with no boxing and no
+   * Point allocation on lookup.  Every distinct vertex across all arcs gets an id in the order
+   * it's first seen; per id we keep the coordinates, how many distinct neighbours it has and
+   * whether it's an arc endpoint, which is enough to find shared vertices and junctions in O(1)
    */
-  static public class CountyInfo
+  static public class VertexIndex
   {
-    private int _rValue;
-    private int _countyId;
-    private String _county;
-    private double _casesPer100K = -1.0;
-    private double _casesDaily7dayRoll = -1.0;
-    private int _totalCases = -1;
-    private int _totalDeaths = -1;
-    private String _color = "";
-
-    public int getRValue() { return _rValue; }
-    public int getCountyId() { return _countyId; }
-    public String getCounty() { return _county; }
-    public String getColor() { return _color; }
-    public double getCasesPer100K() { return _casesPer100K; }
-    public double getCasesDaily7dayRoll() { return _casesDaily7dayRoll; }
-    public int getTotalCases() { return _totalCases; }
-    public int getTotalDeaths() { return _totalDeaths; }
-
-    public CountyInfo(DM0Json pDM0)
+    /**
+     * Map from packed long key -> int; slots with value 0 are free, so values are stored + 1
+     */
+    static public class LongIntMap
     {
-      _rValue = pDM0.R;
-      _countyId = Integer.valueOf(pDM0.C[0]);
-      _county = pDM0.C[1];
+      private long[] _keys;
+      private int[] _values;
+      private int _size;
+      private int _mask;
 
-      // The 'Ø' and 'R' values alter how we interpret the stack of values
-      if (pDM0.Ø >= 0)
-      {
-        _color = pDM0.C[2];
-        _totalCases = Integer.valueOf(pDM0.C[3]);
-        _totalDeaths = Integer.valueOf(pDM0.C[4]);
-        _casesPer100K = Double.valueOf(pDM0.C[5]);
-      }
-      else if (_rValue == -1) // i.e., no R value was specified
+      public int size() { return _size; }
+
+      public LongIntMap(int pExpected)
       {
-        _color = pDM0.C[2];
-        _casesPer100K = Double.valueOf(pDM0.C[3]);
-        _totalCases = Integer.valueOf(pDM0.C[4]);
-        _totalDeaths = Integer.valueOf(pDM0.C[5]);
-        _casesDaily7dayRoll = Double.valueOf(pDM0.C[6]);
+        int capacity = Integer.highestOneBit(Math.max(16, pExpected * 2) - 1) << 1;
+        _keys = new long[capacity];
+        _values = new int[capacity];
+        _mask = capacity - 1;
       }
-      else if (_rValue == 4)
+
+      /**
+       * The stored value, or -1 if the key isn't present
+       */
+      public int get(long pKey)
       {
-        _casesPer100K = Double.valueOf(pDM0.C[2]);
-        _totalCases = Integer.valueOf(pDM0.C[3]);
-        _totalDeaths = Integer.valueOf(pDM0.C[4]);
-        _casesDaily7dayRoll = Double.valueOf(pDM0.C[5]);
+        for (int slot = hash(pKey) & _mask; ; slot = (slot + 1) & _mask)
+        {
+          if (_values[slot] == 0) return -1;
+          if (_keys[slot] == pKey) return _values[slot] - 1;
+        }
       }
-      else if (_rValue == 16)
+
+      /**
+       * The value already stored for the key, or pValue (now stored) if it wasn't present
+       */
+      public int putIfAbsent(long pKey, int pValue)
       {
-        _color = pDM0.C[2];
-        _casesPer100K = Double.valueOf(pDM0.C[3]);
-        _totalCases = Integer.valueOf(pDM0.C[4]);
-        _casesDaily7dayRoll = Double.valueOf(pDM0.C[5]);
+        if ((_size + 1) * 2 > _keys.length) grow();
+
+        int slot = hash(pKey) & _mask;
+        for (; _values[slot] != 0; slot = (slot + 1) & _mask)
+        {
+          if (_keys[slot] == pKey) return _values[slot] - 1;
+        }
+
+        _keys[slot] = pKey;
+        _values[slot] = pValue + 1;
+        ++_size;
+        return pValue;
       }
-      else if (_rValue == 20)
+
+      private void grow()
       {
-        _casesPer100K = Double.valueOf(pDM0.C[2]);
-        _totalCases = Integer.valueOf(pDM0.C[3]);
-        _casesDaily7dayRoll = Double.valueOf(pDM0.C[4]);
+        long[] keys = _keys;
+        int[] values = _values;
+
+        _keys = new long[keys.length * 2];
+        _values = new int[keys.length * 2];
+        _mask = _keys.length - 1;
+
+        for (int loop = 0; loop < keys.length; ++loop)
+        {
+          if (values[loop] == 0) continue;
+
+          int slot = hash(keys[loop]) & _mask;
+          while (_values[slot] != 0) slot = (slot + 1) & _mask;
+          _keys[slot] = keys[loop];
+          _values[slot] = values[loop];
+        }
       }
-      else if (_rValue == 32)
+    }
+
+    static public long pack(int pX, int pY)
+    {
+      return ((long) pX << 32) | (pY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Finaliser from SplitMix64; spreads neighbouring grid points across the whole table
+     */
+    static public int hash(long pKey)
+    {
+      long mixed = pKey;
+      mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+      mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+      mixed = mixed ^ (mixed >>> 31);
+      return (int) mixed;
+    }
+
+    private LongIntMap _ids;
+    private int[] _x;
+    private int[] _y;
+    private int[] _degree;
+    private boolean[] _endpoint;
+    private int[][] _arcVertexIds;
+    private int _count;
+    private int _edges;
+    private int _junctions;
+
+    public int getVertexCount() { return _count; }
+    public int getEdgeCount() { return _edges; }
+    public int getJunctionCount() { return _junctions; }
+    public int getX(int pId) { return _x[pId]; }
+    public int getY(int pId) { return _y[pId]; }
+
+    /**
+     * Number of distinct vertices this one is joined to by an arc segment
+     */
+    public int getDegree(int pId) { return _degree[pId]; }
+
+    /**
+     * Where arcs meet: an arc endpoint, or anywhere three or more segments come together
+     */
+    public boolean isJunction(int pId) { return _endpoint[pId] || (_degree[pId] > 2); }
+
+    /**
+     * Vertex ids along the given arc, in the arc's own order
+     */
+    public int[] getArcVertexIds(int pArc) { return _arcVertexIds[pArc]; }
+
+    public VertexIndex(List<Arc> pArcs)
+    {
+      int points = 0;
+      for (Arc arc : pArcs) points += arc.getPoints().size();
+
+      _ids = new LongIntMap(points);
+      _x = new int[points];
+      _y = new int[points];
+      _endpoint = new boolean[points];
+      _arcVertexIds = new int[pArcs.size()][];
+
+      for (int arc = 0; arc < pArcs.size(); ++arc)
       {
-        _color = pDM0.C[2];
-        _casesPer100K = Double.valueOf(pDM0.C[3]);
-        _totalCases = Integer.valueOf(pDM0.C[4]);
-        _casesDaily7dayRoll = Double.valueOf(pDM0.C[5]);
+        List<Point> arcPoints = pArcs.get(arc).getPoints();
+        int[] ids = new int[arcPoints.size()];
+
+        for (int loop = 0; loop < ids.length; ++loop)
+        {
+          Point point = arcPoints.get(loop);
+          int id = _ids.putIfAbsent(pack(point.getX(), point.getY()), _count);
+          if (id == _count)
+          {
+            _x[id] = point.getX();
+            _y[id] = point.getY();
+            ++_count;
+          }
+          ids[loop] = id;
+        }
+
+        _endpoint[ids[0]] = true;
+        _endpoint[ids[ids.length - 1]] = true;
+        _arcVertexIds[arc] = ids;
       }
-      else if (_rValue == 36)
+
+      _x = Arrays.copyOf(_x, _count);
+      _y = Arrays.copyOf(_y, _count);
+      _endpoint = Arrays.copyOf(_endpoint, _count);
+
+      // Degree counts each undirected segment once, even when two arcs run over the same one
+      _degree = new int[_count];
+      LongIntMap segments = new LongIntMap(points);
+
+      for (int[] ids : _arcVertexIds)
       {
-        _casesPer100K = Double.valueOf(pDM0.C[2]);
-        _totalCases = Integer.valueOf(pDM0.C[3]);
-        _casesDaily7dayRoll = Double.valueOf(pDM0.C[4]);
+        for (int loop = 1; loop < ids.length; ++loop)
+        {
+          int from = Math.min(ids[loop - 1], ids[loop]);
+          int to = Math.max(ids[loop - 1], ids[loop]);
+          if (from == to) continue;
+
+          if (segments.putIfAbsent(pack(from, to), _edges) == _edges)
+          {
+            ++_degree[from];
+            ++_degree[to];
+            ++_edges;
+          }
+        }
       }
-      else if (_rValue == 48)
+
+      for (int id = 0; id < _count; ++id)
       {
-        _color = pDM0.C[2];
-        _casesPer100K = Double.valueOf(pDM0.C[3]);
-        _totalCases = Integer.valueOf(pDM0.C[4]);
+        if (isJunction(id)) ++_junctions;
       }
-      else if (_rValue == 52)
+    }
+
+    /**
+     * Id of the vertex at (x, y), or -1 if no arc passes through it
+     */
+    public int getId(int pX, int pY)
+    {
+      return _ids.get(pack(pX, pY));
+    }
+
+    public String toString()
+    {
+      return String.format("Vertices: %d | segments: %d | junctions: %d", getVertexCount(), getEdgeCount(), getJunctionCount());
+    }
+  }
+
+  /**
+   * Which counties border which.  TopoJSON stores each stretch of shared boundary once, so two
+   * geometries that use the same arc are neighbours.  Kept as compressed sparse rows: node n's
+   * neighbours are getNeighbours()[getOffsets()[n] .. getOffsets()[n + 1]], nodes in county id order
+   */
+  static public class CountyAdjacency
+  {
+    private int[] _countyIds;
+    private int[] _offsets;
+    private int[] _neighbours;
+
+    public int getNodeCount() { return _countyIds.length; }
+    public int getEdgeCount() { return _neighbours.length / 2; }
+    public int getCountyId(int pNode) { return _countyIds[pNode]; }
+    public int getDegree(int pNode) { return _offsets[pNode + 1] - _offsets[pNode]; }
+    public int[] getOffsets() { return _offsets; }
+    public int[] getNeighbours() { return _neighbours; }
+
+    /**
+     * @param pArcCount number of arcs in the topology
+     */
+    public CountyAdjacency(GeometryJson[] pGeometries, int pArcCount)
+    {
+      _countyIds = new int[pGeometries.length];
+      for (int loop = 0; loop < pGeometries.length; ++loop)
       {
-        _casesPer100K = Double.valueOf(pDM0.C[2]);
-        _casesDaily7dayRoll = Double.valueOf(pDM0.C[3]);
+        _countyIds[loop] = Integer.valueOf(pGeometries[loop].properties.GEOID);
       }
-      else if (_rValue == 64)
+      Arrays.sort(_countyIds);
+
+      int[] firstUser = new int[pArcCount];
+      Arrays.fill(firstUser, -1);
+
+      VertexIndex.LongIntMap pairs = new VertexIndex.LongIntMap(pArcCount);
+      int[] from = new int[pArcCount];
+      int[] to = new int[pArcCount];
+      int edges = 0;
+
+      for (GeometryJson geometry : pGeometries)
       {
-        _color = pDM0.C[2];
-        _casesPer100K = Double.valueOf(pDM0.C[3]);
-        _totalCases = Integer.valueOf(pDM0.C[4]);
-        _casesDaily7dayRoll = Double.valueOf(pDM0.C[5]);
+        int node = getNode(Integer.valueOf(geometry.properties.GEOID));
+
+        for (int[][] polygon : geometry.arcs)
+        {
+          for (int[] ring : polygon)
+          {
+            for (int piece : ring)
+            {
+              int arc = (piece < 0) ? ~piece : piece;
+
+              if (firstUser[arc] < 0)
+              {
+                firstUser[arc] = node;
+              }
+              else if (firstUser[arc] != node)
+              {
+                int low = Math.min(node, firstUser[arc]);
+                int high = Math.max(node, firstUser[arc]);
+
+                if (pairs.putIfAbsent(VertexIndex.pack(low, high), edges) == edges)
+                {
+                  if (edges == from.length)
+                  {
+                    from = Arrays.copyOf(from, edges * 2);
+                    to = Arrays.copyOf(to, edges * 2);
+                  }
+                  from[edges] = low;
+                  to[edges] = high;
+                  ++edges;
+                }
+              }
+            }
+          }
+        }
       }
-      else if (_rValue == 68)
+
+      _offsets = new int[_countyIds.length + 1];
+      for (int edge = 0; edge < edges; ++edge)
       {
-        _casesPer100K = Double.valueOf(pDM0.C[2]);
-        _totalCases = Integer.valueOf(pDM0.C[3]);
-        _totalDeaths = Integer.valueOf(pDM0.C[4]);
+        ++_offsets[from[edge] + 1];
+        ++_offsets[to[edge] + 1];
       }
-      else if (_rValue == 76)
+      for (int node = 0; node < _countyIds.length; ++node)
       {
-        _totalCases = Integer.valueOf(pDM0.C[2]);
-        _totalDeaths = Integer.valueOf(pDM0.C[3]);
+        _offsets[node + 1] += _offsets[node];
       }
-      else if (_rValue == 108)
+
+      _neighbours = new int[edges * 2];
+      int[] fill = Arrays.copyOf(_offsets, _countyIds.length);
+      for (int edge = 0; edge < edges; ++edge)
       {
-        _totalCases = Integer.valueOf(pDM0.C[2]);
+        _neighbours[fill[from[edge]]++] = to[edge];
+        _neighbours[fill[to[edge]]++] = from[edge];
       }
-      else
+      for (int node = 0; node < _countyIds.length; ++node)
       {
-        System.out.println("R: " + _rValue);
+        Arrays.sort(_neighbours, _offsets[node], _offsets[node + 1]);
       }
     }
 
+    /**
+     * @return the node for a county, or -1 if it isn't in the topology
+     */
+    public int getNode(int pCountyId)
+    {
+      int node = Arrays.binarySearch(_countyIds, pCountyId);
+      return (node < 0) ? -1 : node;
+    }
+
     public String toString()
     {
-      return String.format("[%2d] ID: %6d | Name: %-30s | Per100K: %12.4f | Daily: %10.4f | Total: %6d | Dead: %5d | %6s |",
-        getRValue(),
-        getCountyId(),
-        getCounty(),
-        getCasesPer100K(),
-        getCasesDaily7dayRoll(),
-        getTotalCases(), getTotalDeaths(), getColor());
+      return String.format("Counties: %d | borders: %d", getNodeCount(), getEdgeCount());
     }
   }
 
-  /**
-   * Simple class to read files; including here for simplicity's sake
-   */
-  static public class EasyReader
+  // Uses starting point and delta to get list of points.
+  static public class Arc
   {
-    private File           file_     = null;
-    private BufferedReader reader_   = null;
-    private boolean        readable_ = false;
+    private Point _start;
+    private List<PointDelta> _deltas;
+    private List<Point> _points;
 
-    public String         getFileName() { return file_ == null ? "" : file_.getAbsolutePath(); }
-    public File           getFile    () { return file_    ; }
-    public BufferedReader getReader  () { return reader_  ; }
-    public boolean        isReadable () { return readable_; }
+    public Point getStart() { return _start; }
+    public List<PointDelta> getDeltas() { return _deltas; }
+    public List<Point> getPoints() { return _points; }
 
-    public EasyReader()
+    public Arc(Arc pArc, boolean pReverse)
     {
+      _start = new Point(pReverse ? pArc.getPoints().get(pArc.getPoints().size() - 1) : pArc.getPoints().get(0));
+
+      _points = new ArrayList<>();
+
+      if (pReverse)
+      {
+        for (Point point : pArc.getPoints())
+        {
+          _points.add(0, point);
+        }
+      }
+      else
+      {
+        for (Point point : pArc.getPoints())
+        {
+          _points.add(point);
+        }
+      }
+    }
+
+    public Arc(List<Point> pPoints)
+    {
+      if (pPoints.isEmpty()) return;
+      _start = pPoints.get(0);
+
+      _points = new ArrayList<>();
+
+      for (Point point : pPoints)
+      {
+        _points.add(point);
+      }
+    }
+
+    public Arc(int[][] pArcs)
+    {
+      _start = new Point(pArcs[0]);
+
+      _deltas = new ArrayList<>();
+      for (int delta = 1; delta < pArcs.length; ++delta)
+      {
+        _deltas.add(new PointDelta(pArcs[delta]));
+      }
+
+      _points = new ArrayList<>();
+
+      Point currentPoint = new Point(getStart());
+      _points.add(currentPoint);
+
+      for (PointDelta delta : getDeltas())
+      {
+        currentPoint = new Point(currentPoint, delta);
+        _points.add(currentPoint);
+      }
+    }
+
+    public String toString()
+    {
+      StringBuilder builder = new StringBuilder();
+
+      if (getPoints() != null)
+      {
+        for (Point point : getPoints())
+        {
+          builder.append(point.toString()).append(" ");
+        }
+      }
+
+      return builder.toString();
+    }
+  }
+
+  /**
+   * How county outlines are written into the SVG.  ABSOLUTE is the original screen-space
+   * '%f' coordinates; RELATIVE keeps the topology's own integer grid, writes each vertex as an
+   * integer delta from the last (h / v / l, with collinear runs merged) and applies the
+   * scale / translate once through the group's transform
+   */
+  public enum PathEncoding
+  {
+    ABSOLUTE("absolute"),
+    RELATIVE("relative");
+
+    private String _name;
+    public String getName() { return _name; }
+
+    PathEncoding(String pName)
+    {
+      _name = pName;
+    }
+
+    static public PathEncoding forName(String pName)
+    {
+      for (PathEncoding encoding : values())
+      {
+        if (encoding.getName().equals(pName)) return encoding;
+      }
+      throw new IllegalArgumentException("Unknown path encoding: " + pName);
+    }
+  }
+
+  /**
+   * What sizes the circles in the bubble map: the county's total cases, or the value of the
+   * metric being rendered (colour always comes from the metric)
+   */
+  public enum BubbleSize
+  {
+    TOTAL_CASES("total"),
+    METRIC("metric");
+
+    private String _name;
+    public String getName() { return _name; }
+
+    BubbleSize(String pName)
+    {
+      _name = pName;
+    }
+
+    static public BubbleSize forName(String pName)
+    {
+      for (BubbleSize size : values())
+      {
+        if (size.getName().equals(pName)) return size;
+      }
+      throw new IllegalArgumentException("Unknown bubble size: " + pName);
+    }
+  }
+
+  /**
+   * A county's outline already formatted as SVG path data (in screen space) so that each frame
+   * only has to add the style; built once and shared by every frame
+   */
+  static public class CountyGeometry
+  {
+    private int _countyId;
+    private int _stateId;
+    private String[] _paths;
+    private int _vertices;
+    private int _length;
+
+    public int getCountyId() { return _countyId; }
+    public int getStateId() { return _stateId; }
+    public int getVertices() { return _vertices; }
+    public int getLength() { return _length; }
+
+    /**
+     * Each entry is '<path d="M...L...' up to (not including) the closing 'Z'
+     */
+    public String[] getPaths() { return _paths; }
+
+    /**
+     * Paths that have already been formatted, e.g. by OutputSize
+     */
+    public CountyGeometry(int pCountyId, int pStateId, String[] pPaths, int pVertices)
+    {
+      _countyId = pCountyId;
+      _stateId = pStateId;
+      _paths = pPaths;
+      _vertices = pVertices;
+
+      for (String path : pPaths) _length += path.length();
+    }
+
+    public CountyGeometry(CountyPolygon pCountyPolygon, PathEncoding pEncoding, Geography pGeography)
+    {
+      _countyId = pCountyPolygon.getCountyId();
+      _stateId = pCountyPolygon.getStateId();
+
+      List<String> paths = new ArrayList<>();
+      StringBuilder builder = new StringBuilder();
+
+      for (Arc arc : pCountyPolygon.getArcs())
+      {
+        if (arc.getPoints() == null) continue;
+
+        builder.setLength(0);
+
+        if (pEncoding == PathEncoding.RELATIVE)
+        {
+          _vertices += appendRelative(builder, arc.getPoints());
+        }
+        else
+        {
+          Point pointStart = arc.getPoints().get(0);
+          builder.append(String.format("\t\t<path d=\"M%f,%f", pGeography.transformedX(pointStart.getX()), pGeography.transformedY(pointStart.getY())));
+
+          for (int point = 1; point < arc.getPoints().size(); ++point)
+          {
+            Point pointNext = arc.getPoints().get(point);
+
+            builder.append(String.format("L%f,%f", pGeography.transformedX(pointNext.getX()), pGeography.transformedY(pointNext.getY())));
+          }
+          _vertices += arc.getPoints().size();
+        }
+
+        paths.add(builder.toString());
+        _length += builder.length();
+      }
+
+      _paths = paths.toArray(new String[0]);
+    }
+
+    /**
+     * Writes the points as a move to the first one followed by integer deltas; consecutive
+     * deltas in the same direction are merged into one
+     *
+     * @return number of vertices written
+     */
+    static public int appendRelative(StringBuilder pBuilder, List<Point> pPoints)
+    {
+      int[] coordinates = new int[2 * pPoints.size()];
+      for (int point = 0; point < pPoints.size(); ++point)
+      {
+        coordinates[2 * point] = pPoints.get(point).getX();
+        coordinates[2 * point + 1] = pPoints.get(point).getY();
+      }
+      return appendRelative(pBuilder, coordinates, pPoints.size());
+    }
+
+    /**
+     * Same as above for pCount points packed x, y, x, y ... in pCoordinates
+     */
+    static public int appendRelative(StringBuilder pBuilder, int[] pCoordinates, int pCount)
+    {
+      pBuilder.append("\t\t<path d=\"M").append(pCoordinates[0]).append(',').append(pCoordinates[1]);
+
+      int vertices = 1;
+      int pendingX = 0;
+      int pendingY = 0;
+
+      for (int point = 1; point < pCount; ++point)
+      {
+        int deltaX = pCoordinates[2 * point] - pCoordinates[2 * point - 2];
+        int deltaY = pCoordinates[2 * point + 1] - pCoordinates[2 * point - 1];
+
+        boolean collinear = ((long) pendingX * deltaY == (long) pendingY * deltaX)
+                         && ((long) pendingX * deltaX + (long) pendingY * deltaY > 0);
+
+        if (collinear)
+        {
+          pendingX += deltaX;
+          pendingY += deltaY;
+          continue;
+        }
+
+        vertices += appendDelta(pBuilder, pendingX, pendingY);
+        pendingX = deltaX;
+        pendingY = deltaY;
+      }
+
+      vertices += appendDelta(pBuilder, pendingX, pendingY);
+      return vertices;
+    }
+
+    static private int appendDelta(StringBuilder pBuilder, int pDeltaX, int pDeltaY)
+    {
+      if ((pDeltaX == 0) && (pDeltaY == 0)) return 0;
+
+      if (pDeltaY == 0)
+      {
+        pBuilder.append('h').append(pDeltaX);
+      }
+      else if (pDeltaX == 0)
+      {
+        pBuilder.append('v').append(pDeltaY);
+      }
+      else
+      {
+        pBuilder.append('l').append(pDeltaX);
+        if (pDeltaY > 0) pBuilder.append(',');
+        pBuilder.append(pDeltaY);
+      }
+      return 1;
+    }
+  }
+
+  /**
+   * County info; since we're loading historical data separately, *most* of this is
+   * ignored
+   */
+  static public class CountyInfo
+  {
+    private int _rValue;
+    private int _countyId;
+    private String _county;
+    private double _casesPer100K = -1.0;
+    private double _casesDaily7dayRoll = -1.0;
+    private int _totalCases = -1;
+    private int _totalDeaths = -1;
+    private String _color = "";
+
+    public int getRValue() { return _rValue; }
+    public int getCountyId() { return _countyId; }
+    public String getCounty() { return _county; }
+    public String getColor() { return _color; }
+    public double getCasesPer100K() { return _casesPer100K; }
+    public double getCasesDaily7dayRoll() { return _casesDaily7dayRoll; }
+    public int getTotalCases() { return _totalCases; }
+    public int getTotalDeaths() { return _totalDeaths; }
+
+    public CountyInfo(DM0Json pDM0)
+    {
+      _rValue = pDM0.R;
+      _countyId = Integer.valueOf(pDM0.C[0]);
+      _county = pDM0.C[1];
+
+      // The 'Ø' and 'R' values alter how we interpret the stack of values
+      if (pDM0.Ø >= 0)
+      {
+        _color = pDM0.C[2];
+        _totalCases = Integer.valueOf(pDM0.C[3]);
+        _totalDeaths = Integer.valueOf(pDM0.C[4]);
+        _casesPer100K = Double.valueOf(pDM0.C[5]);
+      }
+      else if (_rValue == -1) // i.e., no R value was specified
+      {
+        _color = pDM0.C[2];
+        _casesPer100K = Double.valueOf(pDM0.C[3]);
+        _totalCases = Integer.valueOf(pDM0.C[4]);
+        _totalDeaths = Integer.valueOf(pDM0.C[5]);
+        _casesDaily7dayRoll = Double.valueOf(pDM0.C[6]);
+      }
+      else if (_rValue == 4)
+      {
+        _casesPer100K = Double.valueOf(pDM0.C[2]);
+        _totalCases = Integer.valueOf(pDM0.C[3]);
+        _totalDeaths = Integer.valueOf(pDM0.C[4]);
+        _casesDaily7dayRoll = Double.valueOf(pDM0.C[5]);
+      }
+      else if (_rValue == 16)
+      {
+        _color = pDM0.C[2];
+        _casesPer100K = Double.valueOf(pDM0.C[3]);
+        _totalCases = Integer.valueOf(pDM0.C[4]);
+        _casesDaily7dayRoll = Double.valueOf(pDM0.C[5]);
+      }
+      else if (_rValue == 20)
+      {
+        _casesPer100K = Double.valueOf(pDM0.C[2]);
+        _totalCases = Integer.valueOf(pDM0.C[3]);
+        _casesDaily7dayRoll = Double.valueOf(pDM0.C[4]);
+      }
+      else if (_rValue == 32)
+      {
+        _color = pDM0.C[2];
+        _casesPer100K = Double.valueOf(pDM0.C[3]);
+        _totalCases = Integer.valueOf(pDM0.C[4]);
+        _casesDaily7dayRoll = Double.valueOf(pDM0.C[5]);
+      }
+      else if (_rValue == 36)
+      {
+        _casesPer100K = Double.valueOf(pDM0.C[2]);
+        _totalCases = Integer.valueOf(pDM0.C[3]);
+        _casesDaily7dayRoll = Double.valueOf(pDM0.C[4]);
+      }
+      else if (_rValue == 48)
+      {
+        _color = pDM0.C[2];
+        _casesPer100K = Double.valueOf(pDM0.C[3]);
+        _totalCases = Integer.valueOf(pDM0.C[4]);
+      }
+      else if (_rValue == 52)
+      {
+        _casesPer100K = Double.valueOf(pDM0.C[2]);
+        _casesDaily7dayRoll = Double.valueOf(pDM0.C[3]);
+      }
+      else if (_rValue == 64)
+      {
+        _color = pDM0.C[2];
+        _casesPer100K = Double.valueOf(pDM0.C[3]);
+        _totalCases = Integer.valueOf(pDM0.C[4]);
+        _casesDaily7dayRoll = Double.valueOf(pDM0.C[5]);
+      }
+      else if (_rValue == 68)
+      {
+        _casesPer100K = Double.valueOf(pDM0.C[2]);
+        _totalCases = Integer.valueOf(pDM0.C[3]);
+        _totalDeaths = Integer.valueOf(pDM0.C[4]);
+      }
+      else if (_rValue == 76)
+      {
+        _totalCases = Integer.valueOf(pDM0.C[2]);
+        _totalDeaths = Integer.valueOf(pDM0.C[3]);
+      }
+      else if (_rValue == 108)
+      {
+        _totalCases = Integer.valueOf(pDM0.C[2]);
+      }
+      else
+      {
+        System.out.println("R: " + _rValue);
+      }
+    }
+
+    /**
+     * Takes every value pOther has; the ones it doesn't have are left as they are
+     */
+    public void merge(CountyInfo pOther)
+    {
+      _rValue = pOther._rValue;
+      if (pOther._county != null) _county = pOther._county;
+      if ((pOther._color != null) && !pOther._color.isEmpty()) _color = pOther._color;
+      if (pOther._casesPer100K >= 0) _casesPer100K = pOther._casesPer100K;
+      if (pOther._casesDaily7dayRoll >= 0) _casesDaily7dayRoll = pOther._casesDaily7dayRoll;
+      if (pOther._totalCases >= 0) _totalCases = pOther._totalCases;
+      if (pOther._totalDeaths >= 0) _totalDeaths = pOther._totalDeaths;
+    }
+
+    public String toString()
+    {
+      return String.format("[%2d] ID: %6d | Name: %-30s | Per100K: %12.4f | Daily: %10.4f | Total: %6d | Dead: %5d | %6s |",
+        getRValue(),
+        getCountyId(),
+        getCounty(),
+        getCasesPer100K(),
+        getCasesDaily7dayRoll(),
+        getTotalCases(), getTotalDeaths(), getColor());
+    }
+  }
+
+  /**
+   * Simple class to read files; including here for simplicity's sake
+   */
+  static public class EasyReader
+  {
+    private File           file_     = null;
+    private BufferedReader reader_   = null;
+    private boolean        readable_ = false;
+
+    public String         getFileName() { return file_ == null ? "" : file_.getAbsolutePath(); }
+    public File           getFile    () { return file_    ; }
+    public BufferedReader getReader  () { return reader_  ; }
+    public boolean        isReadable () { return readable_; }
+
+    public EasyReader()
+    {
+    }
+
+    public EasyReader(String pFileName)
+    {
+      this(new File(pFileName));
+    }
+
+    public EasyReader(File pFile)
+    {
+      file_ = pFile;
+      open();
+    }
+
+    public static String fetchContents(File pFile)
+    {
+      return (pFile == null) ? "" : fetchContents(pFile.getPath());
+    }
+
+    public static String fetchContents(String pFileName)
+    {
+      StringBuilder builder = new StringBuilder();
+
+      EasyReader reader = new EasyReader(pFileName);
+
+      if (reader.open())
+      {
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+          builder.append(line).append("\n");
+        }
+
+        reader.close();
+      }
+
+      return builder.toString();
+    }
+
+    public void reset()
+    {
+      open();
+    }
+
+    public boolean open()
+    {
+      readable_ = false;
+
+      try
+      {
+        reader_ = new BufferedReader(new FileReader(file_));
+      }
+      catch (Exception e)
+      {
+        reader_ = null;
+        return false;
+      }
+
+      readable_ = true;
+
+      return readable_;
+    }
+
+    public void close()
+    {
+      if (reader_ != null)
+      {
+        try
+        {
+          reader_.close();
+        }
+        catch (IOException e)
+        {
+        }
+      }
+      readable_ = false;
+    }
+
+    public String readLine()
+    {
+      if (!readable_)
+      {
+        return null;
+      }
+
+      try
+      {
+        return reader_.readLine();
+      }
+      catch (Exception e)
+      {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Simple class to write files; incuded here for simplicity's sake
+   */
+  static public class EasyWriter
+  {
+    private File           file_      = null;
+    private BufferedWriter writer_    = null;
+    private boolean        writeable_ = false;
+
+    public String         getFileName() { return file_ == null ? "" : file_.getAbsolutePath(); }
+    public File           getFile    () { return file_     ; }
+    public BufferedWriter getWriter  () { return writer_   ; }
+    public boolean        isWriteable() { return writeable_; }
+
+    static private long s_total_LinesWritter = 0L;
+    static public long getTotalLinesWritten() { return s_total_LinesWritter; }
+
+    public static void dumpStringToFile(File    pFile,
+                                        boolean pAppend,
+                                        String  pMessage)
+    {
+      try
+      {
+        pFile.getParentFile().mkdirs();
+        EasyWriter writer = new EasyWriter(pFile, pAppend);
+        writer.writeLine(pMessage);
+        writer.close();
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+      }
+    }
+
+    public static void dumpStringToFilename(String  pFilename,
+                                            boolean pAppend,
+                                            String  pMessage)
+    {
+      if ((pFilename == null) || pFilename.isEmpty())
+      {
+        return;
+      }
+
+      dumpStringToFile(new File(pFilename), pAppend, pMessage);
+    }
+
+    public EasyWriter()
+    {
+    }
+
+    public EasyWriter(String pFileName)
+    {
+      this(new File(pFileName));
+    }
+
+    public EasyWriter(File pFile)
+    {
+      this (pFile, false);
+    }
+
+    public EasyWriter(File    pFile,
+                      boolean pAppend)
+    {
+      file_ = pFile;
+      open(pAppend);
+    }
+
+    public EasyWriter(File   pFile,
+                      String pOutput)
+    {
+      file_ = pFile;
+      open();
+      writeLine(pOutput);
+      close();
+    }
+
+
+    public boolean open()
+    {
+      return open(false);
+    }
+
+    public boolean open(boolean pAppend)
+    {
+      writeable_ = false;
+
+      try
+      {
+        file_.getParentFile().mkdirs();
+        writer_ = new BufferedWriter(new FileWriter(file_, pAppend));
+      }
+      catch (Exception e)
+      {
+        writer_ = null;
+        return false;
+      }
+
+      writeable_ = true;
+
+      return writeable_;
+    }
+
+    public void close()
+    {
+      if (writer_ != null)
+      {
+        try
+        {
+          writer_.flush();
+          writer_.close();
+        }
+        catch (IOException e)
+        {
+        }
+      }
+      writeable_ = false;
+    }
+
+    public void writeLine(String pLine)
+    {
+      if (!writeable_)
+      {
+        return;
+      }
+      try
+      {
+        writer_.write(pLine.endsWith("\n") ? pLine : pLine + "\n");
+        s_total_LinesWritter += pLine.split("\n").length;
+      }
+      catch (Exception e)
+      {
+      }
+    }
+  }
+
+  /**
+   * Gzip output stream that deflates in independent blocks on the common pool (pigz-style):
+   * each full block is handed off as soon as it fills, primed with the previous block's last
+   * 32K as a dictionary and ended with a sync flush so the pieces concatenate into one valid
+   * deflate stream.  Blocks are written in order as they complete
+   */
+  static public class ParallelGzipOutputStream extends OutputStream
+  {
+    static public final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    static private final int DICTIONARY_SIZE = 32 * 1024;
+
+    private OutputStream _out;
+    private int _blockSize;
+    private int _level;
+    private byte[] _block;
+    private int _used = 0;
+    private byte[] _dictionary = null;
+    private ArrayDeque<Future<byte[]>> _pending = new ArrayDeque<>();
+    private int _maxPending;
+    private CRC32 _crc = new CRC32();
+    private long _size = 0;
+    private boolean _closed = false;
+
+    public ParallelGzipOutputStream(OutputStream pOut) throws IOException
+    {
+      this(pOut, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelGzipOutputStream(OutputStream pOut, int pBlockSize, int pLevel) throws IOException
+    {
+      _out = pOut;
+      _blockSize = pBlockSize;
+      _level = pLevel;
+      _block = new byte[pBlockSize];
+      _maxPending = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+
+      // Header: magic, deflate, no flags, no mtime, no extra flags, unknown OS
+      _out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff });
+    }
+
+    public void write(int pByte) throws IOException
+    {
+      write(new byte[] { (byte) pByte }, 0, 1);
+    }
+
+    public void write(byte[] pBytes, int pOffset, int pLength) throws IOException
+    {
+      while (pLength > 0)
+      {
+        int count = Math.min(pLength, _blockSize - _used);
+        System.arraycopy(pBytes, pOffset, _block, _used, count);
+        _used += count;
+        pOffset += count;
+        pLength -= count;
+
+        if (_used == _blockSize)
+        {
+          submitBlock(false);
+        }
+      }
+    }
+
+    private void submitBlock(boolean pLast) throws IOException
+    {
+      byte[] block = (_used == _block.length) ? _block : Arrays.copyOf(_block, _used);
+      byte[] dictionary = _dictionary;
+
+      _crc.update(block, 0, block.length);
+      _size += block.length;
+
+      if (block.length >= DICTIONARY_SIZE)
+      {
+        _dictionary = Arrays.copyOfRange(block, block.length - DICTIONARY_SIZE, block.length);
+      }
+
+      _pending.add(ForkJoinPool.commonPool().submit(() -> deflateBlock(block, dictionary, pLast, _level)));
+
+      _block = new byte[_blockSize];
+      _used = 0;
+
+      // Don't let compression fall too far behind (bounds the memory held in pending blocks)
+      while (_pending.size() > _maxPending)
+      {
+        writePending();
+      }
+    }
+
+    static private byte[] deflateBlock(byte[] pBlock, byte[] pDictionary, boolean pLast, int pLevel)
+    {
+      Deflater deflater = new Deflater(pLevel, true);
+      try
+      {
+        if (pDictionary != null)
+        {
+          deflater.setDictionary(pDictionary);
+        }
+        deflater.setInput(pBlock);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(pBlock.length / 4 + 64);
+        byte[] buffer = new byte[16 * 1024];
+
+        if (pLast)
+        {
+          deflater.finish();
+          while (!deflater.finished())
+          {
+            output.write(buffer, 0, deflater.deflate(buffer));
+          }
+        }
+        else
+        {
+          // A sync flush ends on a byte boundary without marking the block as the last one
+          int count;
+          do
+          {
+            count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            output.write(buffer, 0, count);
+          }
+          while (count == buffer.length);
+        }
+
+        return output.toByteArray();
+      }
+      finally
+      {
+        deflater.end();
+      }
+    }
+
+    private void writePending() throws IOException
+    {
+      try
+      {
+        _out.write(_pending.removeFirst().get());
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+      catch (ExecutionException e)
+      {
+        throw new IOException(e.getCause());
+      }
+    }
+
+    public void close() throws IOException
+    {
+      if (_closed) return;
+      _closed = true;
+
+      try
+      {
+        submitBlock(true);
+        while (!_pending.isEmpty())
+        {
+          writePending();
+        }
+
+        // Trailer: CRC32 and size mod 2^32, both little-endian
+        long crc = _crc.getValue();
+        _out.write(new byte[] {
+          (byte) crc, (byte) (crc >> 8), (byte) (crc >> 16), (byte) (crc >> 24),
+          (byte) _size, (byte) (_size >> 8), (byte) (_size >> 16), (byte) (_size >> 24) });
+      }
+      finally
+      {
+        _out.close();
+      }
+    }
+
+    /**
+     * @return pMessage (newline terminated, as EasyWriter would write it) gzipped
+     */
+    static public byte[] compress(String pMessage) throws IOException
+    {
+      ByteArrayOutputStream output = new ByteArrayOutputStream(pMessage.length() / 3 + 64);
+
+      try (Writer writer = new OutputStreamWriter(new ParallelGzipOutputStream(output), StandardCharsets.UTF_8))
+      {
+        writer.write(pMessage.endsWith("\n") ? pMessage : pMessage + "\n");
+      }
+
+      return output.toByteArray();
+    }
+  }
+
+  /**
+   * PNG encoder that filters and deflates the image in blocks of BLOCK_ROWS rows on the common
+   * pool, the way ParallelGzipOutputStream does: each block is primed with the filtered bytes
+   * just before it as a dictionary and ended with a sync flush, and the blocks' Adler-32s are
+   * combined for the zlib trailer.  Rows aren't filtered, as ImageIO doesn't filter them: the
+   * flat fills of a map deflate as well without, for far less work.  The blocks don't depend on
+   * how the image was drawn, so the bytes are the same for any number of cores or bands
+   */
+  static public class ParallelPngEncoder
+  {
+    static public final int BLOCK_ROWS = 64;
+    static private final int LEVEL = 4;                  // ImageIO's default: most of level 9's size for far less time
+    static private final int DICTIONARY_SIZE = 32 * 1024;
+    static private final int ADLER_BASE = 65521;
+    static private final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    static public byte[] encode(BufferedImage pImage) throws IOException
+    {
+      int width = pImage.getWidth();
+      int height = pImage.getHeight();
+      int channels = pImage.getColorModel().hasAlpha() ? 4 : 3;
+      int blocks = (height + BLOCK_ROWS - 1) / BLOCK_ROWS;
+
+      long[] adlers = new long[blocks];
+      byte[][] deflated = IntStream.range(0, blocks).parallel()
+        .mapToObj(block -> deflateBlock(pImage, channels, block, blocks, adlers))
+        .toArray(byte[][]::new);
+
+      long adler = 1;
+      for (int block = 0; block < blocks; ++block)
+      {
+        int rows = Math.min(BLOCK_ROWS, height - block * BLOCK_ROWS);
+        adler = combineAdler(adler, adlers[block], (long) rows * (1 + channels * width));
+      }
+
+      ByteArrayOutputStream png = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(png);
+      output.write(SIGNATURE);
+
+      ByteBuffer header = ByteBuffer.allocate(13);
+      header.putInt(width).putInt(height).put((byte) 8).put((byte) ((channels == 4) ? 6 : 2)).put((byte) 0).put((byte) 0).put((byte) 0);
+      writeChunk(output, "IHDR", header.array(), 0, 13);
+
+      // zlib header (deflate, 32K window, "fast" level), the blocks, then the Adler-32
+      writeChunk(output, "IDAT", new byte[] { 0x78, 0x5e }, 0, 2);
+      for (byte[] block : deflated)
+      {
+        writeChunk(output, "IDAT", block, 0, block.length);
+      }
+      writeChunk(output, "IDAT", ByteBuffer.allocate(4).putInt((int) adler).array(), 0, 4);
+      writeChunk(output, "IEND", new byte[0], 0, 0);
+      return png.toByteArray();
+    }
+
+    static private byte[] deflateBlock(BufferedImage pImage, int pChannels, int pBlock, int pBlocks, long[] pAdlers)
+    {
+      int width = pImage.getWidth();
+      int rowSize = 1 + pChannels * width;
+      int first = pBlock * BLOCK_ROWS;
+      int end = Math.min(pImage.getHeight(), first + BLOCK_ROWS);
+
+      // Enough rows before the block to fill the dictionary
+      int lead = Math.min(first, (DICTIONARY_SIZE + rowSize - 1) / rowSize);
+      byte[] data = new byte[(end - first + lead) * rowSize];
+      for (int row = first - lead; row < end; ++row)
+      {
+        writeRow(pImage, row, pChannels, data, (row - first + lead) * rowSize);
+      }
+
+      int start = lead * rowSize;
+      Adler32 adler = new Adler32();
+      adler.update(data, start, data.length - start);
+      pAdlers[pBlock] = adler.getValue();
+
+      Deflater deflater = new Deflater(LEVEL, true);
+      try
+      {
+        if (start > 0)
+        {
+          int size = Math.min(DICTIONARY_SIZE, start);
+          deflater.setDictionary(data, start - size, size);
+        }
+        deflater.setInput(data, start, data.length - start);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream((data.length - start) / 8 + 64);
+        byte[] buffer = new byte[16 * 1024];
+        if (pBlock == pBlocks - 1)
+        {
+          deflater.finish();
+          while (!deflater.finished())
+          {
+            output.write(buffer, 0, deflater.deflate(buffer));
+          }
+        }
+        else
+        {
+          int count;
+          do
+          {
+            count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            output.write(buffer, 0, count);
+          }
+          while (count == buffer.length);
+        }
+        return output.toByteArray();
+      }
+      finally
+      {
+        deflater.end();
+      }
+    }
+
+    /**
+     * Filter type 0 (none) and the row's bytes
+     */
+    static private void writeRow(BufferedImage pImage, int pRow, int pChannels, byte[] pOutput, int pOffset)
+    {
+      int width = pImage.getWidth();
+      int[] pixels = ((pImage.getType() == BufferedImage.TYPE_INT_RGB) || (pImage.getType() == BufferedImage.TYPE_INT_ARGB))
+        ? (int[]) pImage.getRaster().getDataElements(0, pRow, width, 1, null)
+        : pImage.getRGB(0, pRow, width, 1, null, 0, width);
+
+      int at = pOffset;
+      pOutput[at++] = 0;
+      for (int x = 0; x < width; ++x)
+      {
+        pOutput[at++] = (byte) (pixels[x] >> 16);
+        pOutput[at++] = (byte) (pixels[x] >> 8);
+        pOutput[at++] = (byte) pixels[x];
+        if (pChannels == 4) pOutput[at++] = (byte) (pixels[x] >>> 24);
+      }
+    }
+
+    /**
+     * Adler-32 of two runs of bytes from each one's own Adler-32 (zlib's adler32_combine)
+     */
+    static private long combineAdler(long pFirst, long pSecond, long pSecondLength)
+    {
+      long remainder = pSecondLength % ADLER_BASE;
+      long sum1 = pFirst & 0xffff;
+      long sum2 = (remainder * sum1) % ADLER_BASE;
+      sum1 += (pSecond & 0xffff) + ADLER_BASE - 1;
+      sum2 += ((pFirst >> 16) & 0xffff) + ((pSecond >> 16) & 0xffff) + ADLER_BASE - remainder;
+      if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+      if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+      if (sum2 >= 2L * ADLER_BASE) sum2 -= 2L * ADLER_BASE;
+      if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+      return (sum2 << 16) | sum1;
+    }
+
+    static private void writeChunk(DataOutputStream pOutput, String pType, byte[] pData, int pOffset, int pLength) throws IOException
+    {
+      byte[] type = pType.getBytes(StandardCharsets.US_ASCII);
+      CRC32 crc = new CRC32();
+      crc.update(type);
+      crc.update(pData, pOffset, pLength);
+
+      pOutput.writeInt(pLength);
+      pOutput.write(type);
+      pOutput.write(pData, pOffset, pLength);
+      pOutput.writeInt((int) crc.getValue());
+    }
+  }
+
+  /**
+   * Where rendered output goes.  Names are relative paths like "svg/testCovid_000.svg"; any
+   * failure is thrown back to the caller rather than printed and forgotten
+   */
+  public interface OutputSink extends Closeable
+  {
+    void write(String pName, byte[] pContents) throws IOException;
+
+    /**
+     * Streams one output instead of handing it over whole; it's there once the stream is
+     * closed.  One at a time: other threads' writes wait until it is, and the opening thread
+     * mustn't write anything else meanwhile
+     */
+    OutputStream open(String pName) throws IOException;
+  }
+
+  /**
+   * Writes each output as a file under a root directory
+   */
+  static public class DirectorySink implements OutputSink
+  {
+    private File _root;
+    private Set<File> _createdDirectories = ConcurrentHashMap.newKeySet();
+
+    public File getRoot() { return _root; }
+
+    public DirectorySink(File pRoot)
+    {
+      _root = pRoot;
+    }
+
+    public void write(String pName, byte[] pContents) throws IOException
+    {
+      Files.write(createFile(pName).toPath(), pContents);
+    }
+
+    public OutputStream open(String pName) throws IOException
+    {
+      return new BufferedOutputStream(new FileOutputStream(createFile(pName)), 1 << 16);
+    }
+
+    private File createFile(String pName) throws IOException
+    {
+      File file = new File(_root, pName);
+      File directory = file.getParentFile();
+
+      // Only hit the filesystem for a directory the first time we see it
+      if (_createdDirectories.add(directory))
+      {
+        Files.createDirectories(directory.toPath());
+      }
+      return file;
+    }
+
+    public void close()
+    {
+    }
+  }
+
+  /**
+   * Writes every output as an entry of one ZIP file, appended through a single FileChannel;
+   * the central directory at the end is the index ArchiveReader uses to jump straight to any
+   * frame.  Entries are stored as-is or deflated; already compressed outputs (.svgz / .gz) are
+   * always stored.  A streamed entry is appended as it's written, with its CRC and sizes in a
+   * data descriptor after it, and holds the channel until it's closed
+   */
+  static public class ArchiveSink implements OutputSink
+  {
+    static private final int LOCAL_HEADER = 0x04034b50;
+    static private final int CENTRAL_HEADER = 0x02014b50;
+    static private final int DATA_DESCRIPTOR = 0x08074b50;
+    static private final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    static private final int UTF8_NAMES = 0x0800;
+    static private final int SIZES_AFTER_DATA = 0x0008;
+
+    static private class Entry
+    {
+      byte[] name;
+      int flags = UTF8_NAMES;
+      int method;
+      long crc;
+      long compressedSize;
+      long size;
+      long offset;
+    }
+
+    private FileChannel _channel;
+    private boolean _deflate;
+    private ReentrantLock _lock = new ReentrantLock();
+    private List<Entry> _entries = new ArrayList<>();
+    private int _dosTime;
+    private int _dosDate;
+
+    public ArchiveSink(File pFile, boolean pDeflate) throws IOException
+    {
+      File directory = pFile.getAbsoluteFile().getParentFile();
+      Files.createDirectories(directory.toPath());
+
+      _channel = FileChannel.open(pFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      _deflate = pDeflate;
+
+      LocalDateTime now = LocalDateTime.now();
+      _dosTime = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() / 2);
+      _dosDate = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+    }
+
+    public void write(String pName, byte[] pContents) throws IOException
+    {
+      Entry entry = new Entry();
+      entry.name = pName.getBytes(StandardCharsets.UTF_8);
+      entry.size = pContents.length;
+
+      CRC32 crc = new CRC32();
+      crc.update(pContents, 0, pContents.length);
+      entry.crc = crc.getValue();
+
+      // Compress outside the lock; only the append itself has to be serialised
+      byte[] data = pContents;
+      entry.method = isDeflated(pName) ? 8 : 0;
+      if (entry.method == 8)
+      {
+        data = deflate(pContents);
+      }
+      entry.compressedSize = data.length;
+
+      ByteBuffer header = localHeader(entry);
+
+      lock(pName);
+      try
+      {
+        entry.offset = _channel.position();
+        checkLimits(entry.offset + header.remaining() + data.length);
+
+        ByteBuffer[] buffers = { header, ByteBuffer.wrap(data) };
+        while (buffers[1].hasRemaining())
+        {
+          _channel.write(buffers);
+        }
+        _entries.add(entry);
+      }
+      finally
+      {
+        _lock.unlock();
+      }
+    }
+
+    public OutputStream open(String pName) throws IOException
+    {
+      Entry entry = new Entry();
+      entry.name = pName.getBytes(StandardCharsets.UTF_8);
+      entry.flags |= SIZES_AFTER_DATA;
+      entry.method = isDeflated(pName) ? 8 : 0;
+
+      lock(pName);
+      try
+      {
+        entry.offset = _channel.position();
+        checkLimits(entry.offset);
+
+        ByteBuffer header = localHeader(entry);
+        while (header.hasRemaining())
+        {
+          _channel.write(header);
+        }
+        return new EntryStream(entry);
+      }
+      catch (IOException | RuntimeException e)
+      {
+        _lock.unlock();
+        throw e;
+      }
+    }
+
+    /**
+     * An entry's data as it's streamed, then its data descriptor; releases the lock open() took
+     */
+    private class EntryStream extends OutputStream
+    {
+      private Entry _entry;
+      private CRC32 _crc = new CRC32();
+      private long _dataStart;
+      private Deflater _deflater;
+      private OutputStream _output;
+      private boolean _closed = false;
+
+      public EntryStream(Entry pEntry) throws IOException
+      {
+        _entry = pEntry;
+        _dataStart = _channel.position();
+
+        // Not closed with the entry: that would close the channel
+        _output = new BufferedOutputStream(Channels.newOutputStream(_channel), 1 << 16);
+        if (_entry.method == 8)
+        {
+          _deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+          _output = new DeflaterOutputStream(_output, _deflater, 1 << 16);
+        }
+      }
+
+      public void write(int pByte) throws IOException
+      {
+        write(new byte[] { (byte) pByte }, 0, 1);
+      }
+
+      public void write(byte[] pBytes, int pOffset, int pLength) throws IOException
+      {
+        _crc.update(pBytes, pOffset, pLength);
+        _entry.size += pLength;
+        _output.write(pBytes, pOffset, pLength);
+      }
+
+      public void close() throws IOException
+      {
+        if (_closed) return;
+        _closed = true;
+
+        try
+        {
+          if (_deflater != null) ((DeflaterOutputStream) _output).finish();
+          _output.flush();
+
+          _entry.crc = _crc.getValue();
+          _entry.compressedSize = _channel.position() - _dataStart;
+          checkLimits(_channel.position() + 16);
+          if (_entry.size > 0xffffffffL) checkLimits(_entry.size);
+
+          ByteBuffer descriptor = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+          descriptor.putInt(DATA_DESCRIPTOR)
+            .putInt((int) _entry.crc)
+            .putInt((int) _entry.compressedSize)
+            .putInt((int) _entry.size)
+            .flip();
+          while (descriptor.hasRemaining())
+          {
+            _channel.write(descriptor);
+          }
+          _entries.add(_entry);
+        }
+        finally
+        {
+          if (_deflater != null) _deflater.end();
+          _lock.unlock();
+        }
+      }
+    }
+
+    /**
+     * Takes the channel; a thread that's streaming an entry can't write another in the middle of it
+     */
+    private void lock(String pName)
+    {
+      if (_lock.isHeldByCurrentThread())
+      {
+        throw new IllegalStateException("Can't write " + pName + " while a streamed entry is open");
+      }
+      _lock.lock();
+    }
+
+    private void checkLimits(long pEnd) throws IOException
+    {
+      if ((pEnd > 0xffffffffL) || (_entries.size() >= 0xffff))
+      {
+        throw new IOException("Archive is too large for a plain ZIP (4GB / 65535 entries); use --compress or split the run");
+      }
+    }
+
+    private boolean isDeflated(String pName)
+    {
+      return _deflate && !pName.endsWith(".gz") && !pName.endsWith(".svgz");
+    }
+
+    private ByteBuffer localHeader(Entry pEntry)
+    {
+      ByteBuffer header = ByteBuffer.allocate(30 + pEntry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(LOCAL_HEADER)
+        .putShort((short) 20)
+        .putShort((short) pEntry.flags)
+        .putShort((short) pEntry.method)
+        .putShort((short) _dosTime)
+        .putShort((short) _dosDate)
+        .putInt((int) pEntry.crc)
+        .putInt((int) pEntry.compressedSize)
+        .putInt((int) pEntry.size)
+        .putShort((short) pEntry.name.length)
+        .putShort((short) 0)
+        .put(pEntry.name)
+        .flip();
+      return header;
+    }
+
+    static private byte[] deflate(byte[] pContents)
+    {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      try
+      {
+        deflater.setInput(pContents);
+        deflater.finish();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(pContents.length / 3 + 64);
+        byte[] buffer = new byte[16 * 1024];
+        while (!deflater.finished())
+        {
+          output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return output.toByteArray();
+      }
+      finally
+      {
+        deflater.end();
+      }
+    }
+
+    /**
+     * Appends the central directory (the index) and closes the file
+     */
+    public void close() throws IOException
+    {
+      lock("the index");
+      try
+      {
+        if (!_channel.isOpen()) return;
+
+        long directoryOffset = _channel.position();
+
+        int directorySize = 0;
+        for (Entry entry : _entries)
+        {
+          directorySize += 46 + entry.name.length;
+        }
+
+        ByteBuffer directory = ByteBuffer.allocate(directorySize + 22).order(ByteOrder.LITTLE_ENDIAN);
+        for (Entry entry : _entries)
+        {
+          directory.putInt(CENTRAL_HEADER)
+            .putShort((short) 20)
+            .putShort((short) 20)
+            .putShort((short) entry.flags)
+            .putShort((short) entry.method)
+            .putShort((short) _dosTime)
+            .putShort((short) _dosDate)
+            .putInt((int) entry.crc)
+            .putInt((int) entry.compressedSize)
+            .putInt((int) entry.size)
+            .putShort((short) entry.name.length)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putInt(0)
+            .putInt((int) entry.offset)
+            .put(entry.name);
+        }
+
+        directory.putInt(END_OF_CENTRAL_DIRECTORY)
+          .putShort((short) 0)
+          .putShort((short) 0)
+          .putShort((short) _entries.size())
+          .putShort((short) _entries.size())
+          .putInt(directorySize)
+          .putInt((int) directoryOffset)
+          .putShort((short) 0)
+          .flip();
+
+        while (directory.hasRemaining())
+        {
+          _channel.write(directory);
+        }
+      }
+      finally
+      {
+        try
+        {
+          _channel.close();
+        }
+        finally
+        {
+          _lock.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Random access to the outputs in an archive written by ArchiveSink (or any plain ZIP without
+   * a comment): reads the central directory once, then each lookup is a single positioned read
+   */
+  static public class ArchiveReader implements Closeable
+  {
+    static private class Entry
+    {
+      int method;
+      long compressedSize;
+      long size;
+      long offset;
+    }
+
+    private FileChannel _channel;
+    private LinkedHashMap<String, Entry> _entries = new LinkedHashMap<>();
+
+    public Set<String> getNames() { return _entries.keySet(); }
+
+    public ArchiveReader(File pFile) throws IOException
+    {
+      _channel = FileChannel.open(pFile.toPath(), StandardOpenOption.READ);
+
+      ByteBuffer end = read(_channel.size() - 22, 22);
+      if (end.getInt(0) != ArchiveSink.END_OF_CENTRAL_DIRECTORY)
+      {
+        _channel.close();
+        throw new IOException("No ZIP index at the end of " + pFile);
+      }
+
+      int count = end.getShort(10) & 0xffff;
+      long directorySize = end.getInt(12) & 0xffffffffL;
+      long directoryOffset = end.getInt(16) & 0xffffffffL;
+
+      ByteBuffer directory = read(directoryOffset, (int) directorySize);
+      for (int loop = 0; loop < count; ++loop)
+      {
+        int start = directory.position();
+        Entry entry = new Entry();
+        entry.method = directory.getShort(start + 10) & 0xffff;
+        entry.compressedSize = directory.getInt(start + 20) & 0xffffffffL;
+        entry.size = directory.getInt(start + 24) & 0xffffffffL;
+        int nameLength = directory.getShort(start + 28) & 0xffff;
+        int extraLength = directory.getShort(start + 30) & 0xffff;
+        int commentLength = directory.getShort(start + 32) & 0xffff;
+        entry.offset = directory.getInt(start + 42) & 0xffffffffL;
+
+        byte[] name = new byte[nameLength];
+        directory.position(start + 46);
+        directory.get(name);
+        directory.position(start + 46 + nameLength + extraLength + commentLength);
+
+        _entries.put(new String(name, StandardCharsets.UTF_8), entry);
+      }
+    }
+
+    private ByteBuffer read(long pPosition, int pLength) throws IOException
+    {
+      ByteBuffer buffer = ByteBuffer.allocate(pLength).order(ByteOrder.LITTLE_ENDIAN);
+      while (buffer.hasRemaining())
+      {
+        if (_channel.read(buffer, pPosition + buffer.position()) < 0)
+        {
+          throw new EOFException("Archive truncated");
+        }
+      }
+      return buffer.flip();
+    }
+
+    /**
+     * @return the output's contents (inflated if need be), or null if there's no such entry
+     */
+    public byte[] read(String pName) throws IOException
+    {
+      Entry entry = _entries.get(pName);
+      if (entry == null) return null;
+
+      ByteBuffer header = read(entry.offset, 30);
+      int skip = 30 + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+      byte[] data = read(entry.offset + skip, (int) entry.compressedSize).array();
+
+      if (entry.method == 0) return data;
+
+      Inflater inflater = new Inflater(true);
+      try
+      {
+        inflater.setInput(data);
+        byte[] contents = new byte[(int) entry.size];
+        int length = 0;
+        while ((length < contents.length) && !inflater.finished())
+        {
+          length += inflater.inflate(contents, length, contents.length - length);
+        }
+        return contents;
+      }
+      catch (DataFormatException e)
+      {
+        throw new IOException("Corrupt entry: " + pName, e);
+      }
+      finally
+      {
+        inflater.end();
+      }
+    }
+
+    public void close() throws IOException
+    {
+      _channel.close();
+    }
+  }
+
+  /**
+   * Keeps every output in memory, e.g. for callers that want to post-process the frames
+   */
+  static public class MemorySink implements OutputSink
+  {
+    private LinkedHashMap<String, byte[]> _outputs = new LinkedHashMap<>();
+
+    public synchronized Map<String, byte[]> getOutputs() { return new LinkedHashMap<>(_outputs); }
+    public synchronized byte[] get(String pName) { return _outputs.get(pName); }
+
+    public synchronized void write(String pName, byte[] pContents)
+    {
+      _outputs.put(pName, pContents);
+    }
+
+    public OutputStream open(String pName)
+    {
+      return new ByteArrayOutputStream()
+      {
+        public void close()
+        {
+          MemorySink.this.write(pName, toByteArray());
+        }
+      };
+    }
+
+    public void close()
+    {
+    }
+  }
+
+  /**
+   * Hands writes to a dedicated writer thread through a bounded queue, so rendering and I/O
+   * overlap while at most 'capacity' frames are waiting in memory; a full queue blocks the
+   * renderer.  Streamed outputs go through the same queue in STREAM_CHUNK pieces.  A failed
+   * write (whatever the delegate threw) is rethrown from the next write() or from close(); the
+   * writes queued after it are dropped
+   */
+  static public class AsyncSink implements OutputSink
+  {
+    static private final int STREAM_CHUNK = 1 << 16;
+    static private final Object[] s_endOfQueue = new Object[0];
+    static private final Object s_openStream = new Object();
+    static private final Object s_streamData = new Object();
+    static private final Object s_closeStream = new Object();
+
+    private OutputSink _delegate;
+    private ArrayBlockingQueue<Object[]> _queue;
+    private ReentrantLock _lock = new ReentrantLock();
+    private Thread _writer;
+    private OutputStream _stream;                 // the delegate's, only touched by the writer thread
+    private volatile IOException _failure;
+    private boolean _closed = false;
+
+    public AsyncSink(OutputSink pDelegate, int pCapacity)
+    {
+      _delegate = pDelegate;
+      _queue = new ArrayBlockingQueue<>(pCapacity);
+      _writer = new Thread(this::drain, "output-sink");
+      _writer.setDaemon(true);
+      _writer.start();
+    }
+
+    private void drain()
+    {
+      try
+      {
+        while (true)
+        {
+          Object[] entry = _queue.take();
+          if (entry == s_endOfQueue)
+          {
+            // Only open if its producer never got to close it
+            try
+            {
+              closeStream();
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+              fail("an unfinished stream", e);
+            }
+            return;
+          }
+
+          String name = (String) entry[0];
+          byte[] contents = (byte[]) entry[1];
+          Object piece = (entry.length > 2) ? entry[2] : null;
+
+          // A stream is still closed after a failure, so the delegate isn't left holding it
+          if ((_failure != null) && (piece != s_closeStream)) continue;
+
+          // Anything the delegate throws is kept for the renderer; this thread has to carry on
+          // taking entries, or a full queue would block write() and close() for good
+          PhaseTimer timer = PhaseTimer.startPhase(name, "sink write");
+          try
+          {
+            if (piece == null) _delegate.write(name, contents);
+            else if (piece == s_openStream) _stream = _delegate.open(name);
+            else if (piece == s_streamData) _stream.write(contents);
+            else closeStream();
+          }
+          catch (IOException | RuntimeException | Error e)
+          {
+            fail(name, e);
+          }
+          finally
+          {
+            timer.stop(((piece == null) || (piece == s_closeStream)) ? 1 : 0, (contents == null) ? 0 : contents.length);
+          }
+        }
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Keeps the first failure; a stream closed after it mustn't hide it
+     */
+    private void fail(String pName, Throwable pCause)
+    {
+      if (_failure == null) _failure = new IOException("Failed to write " + pName, pCause);
+    }
+
+    private void closeStream() throws IOException
+    {
+      OutputStream stream = _stream;
+      _stream = null;
+      if (stream != null) stream.close();
+    }
+
+    private void checkFailure() throws IOException
+    {
+      if (_failure != null) throw _failure;
+    }
+
+    private void put(String pName, Object[] pEntry) throws IOException
+    {
+      try
+      {
+        _queue.put(pEntry);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted queueing " + pName);
+      }
+    }
+
+    /**
+     * Other threads' writes wait while a stream is open, so its pieces aren't interleaved with them
+     */
+    private void lock(String pName)
+    {
+      if (_lock.isHeldByCurrentThread())
+      {
+        throw new IllegalStateException("Can't write " + pName + " while a stream is open");
+      }
+      _lock.lock();
+    }
+
+    public void write(String pName, byte[] pContents) throws IOException
+    {
+      checkFailure();
+      lock(pName);
+      try
+      {
+        put(pName, new Object[] { pName, pContents });
+      }
+      finally
+      {
+        _lock.unlock();
+      }
+    }
+
+    public OutputStream open(String pName) throws IOException
+    {
+      checkFailure();
+      lock(pName);
+      try
+      {
+        put(pName, new Object[] { pName, null, s_openStream });
+      }
+      catch (IOException | RuntimeException e)
+      {
+        _lock.unlock();
+        throw e;
+      }
+
+      return new OutputStream()
+      {
+        private byte[] _buffer = new byte[STREAM_CHUNK];
+        private int _length = 0;
+        private boolean _streamClosed = false;
+
+        public void write(int pByte) throws IOException
+        {
+          if (_length == _buffer.length) flushChunk();
+          _buffer[_length++] = (byte) pByte;
+        }
+
+        public void write(byte[] pBytes, int pOffset, int pLength) throws IOException
+        {
+          while (pLength > 0)
+          {
+            if (_length == _buffer.length) flushChunk();
+            int count = Math.min(pLength, _buffer.length - _length);
+            System.arraycopy(pBytes, pOffset, _buffer, _length, count);
+            _length += count;
+            pOffset += count;
+            pLength -= count;
+          }
+        }
+
+        private void flushChunk() throws IOException
+        {
+          checkFailure();
+          put(pName, new Object[] { pName, Arrays.copyOf(_buffer, _length), s_streamData });
+          _length = 0;
+        }
+
+        public void close() throws IOException
+        {
+          if (_streamClosed) return;
+          _streamClosed = true;
+
+          try
+          {
+            if (_length > 0) flushChunk();
+          }
+          finally
+          {
+            try
+            {
+              put(pName, new Object[] { pName, null, s_closeStream });
+            }
+            finally
+            {
+              _lock.unlock();
+            }
+          }
+        }
+      };
+    }
+
+    public void close() throws IOException
+    {
+      if (_closed) return;
+      _closed = true;
+
+      try
+      {
+        _queue.put(s_endOfQueue);
+        _writer.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for the writer thread");
+      }
+      finally
+      {
+        _delegate.close();
+      }
+
+      checkFailure();
+    }
+  }
+
+  /**
+   * Historical data
+   */
+  public static class RiskData
+  {
+    private String _countyName;
+    public String getCountyName() { return _countyName; }
+
+    private int _countyId;
+    public int getCountyId() { return _countyId; }
+
+    private HashMap<String, Double> _per100KValueMap = new HashMap<>();
+    public HashMap<String, Double> getPer100KValueMap() { return _per100KValueMap; }
+
+    public RiskData(String[] pHeaderColumns, String[] pDataColumns, Map<String, CountyInfo> pCountyByNameMap)
+    {
+      _countyName = pDataColumns[0].replace("\"", "");
+      CountyInfo info = pCountyByNameMap.get(_countyName);
+      if (info == null)
+      {
+        System.out.println(String.format("Cannot find county: '%s'", _countyName));
+        _countyId = -1;
+      }
+      else
+      {
+        _countyId = info.getCountyId();
+      }
+
+      for (int loop = 2; (loop < pHeaderColumns.length) && (loop < pDataColumns.length); ++loop)
+      {
+        _per100KValueMap.put(pHeaderColumns[loop], Double.valueOf(pDataColumns[loop]));
+      }
+    }
+
+    public String toString()
+    {
+      return String.format("County: %s/%d [%d]", getCountyName(), getCountyId(), getPer100KValueMap().values().size());
+    }
+  }
+
+  /**
+   * Columnar sidecar for riskData.txt, so a run only reads the dates it renders.  Built from the
+   * text file the first time (and again whenever the text file's size or timestamp changes);
+   * little-endian:
+   *
+   *   "RISKCOL2", long source length, long source modified, int header length (everything up
+   *   to the first column), int dates, int counties,
+   *   dates (short length + UTF-8 each), int county ids[counties] (ascending),
+   *   long line offsets in the text file[counties], then double[counties] per date (NaN missing)
+   *
+   * Each read opens the file for itself, so several threads (and datasets) can share one store
+   */
+  static public class RiskColumnStore
+  {
+    static private final byte[] MAGIC = "RISKCOL2".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Magic, source length and mtime, header length, date count, county count
+     */
+    static private final int PREFIX_SIZE = MAGIC.length + 8 + 8 + 4 + 4 + 4;
+
+    /**
+     * Columns held at once while building the sidecar or reading a range of dates
+     */
+    static private final long TRANSPOSE_BYTES = 32L * 1024 * 1024;
+
+    private File _sidecar;
+    private List<String> _dates = new ArrayList<>();
+    private HashMap<String, Integer> _dateIndexMap = new HashMap<>();
+    private int[] _countyIds;
+    private long[] _offsets;
+    private long _columnsStart;
+
+    public List<String> getDates() { return _dates; }
+    public int[] getCountyIds() { return _countyIds; }
+    public int getCountyCount() { return _countyIds.length; }
+
+    /**
+     * Byte offset of the county's line in the text file
+     */
+    public long getOffset(int pSlot) { return _offsets[pSlot]; }
+
+    public int getDateIndex(String pDate)
+    {
+      Integer index = _dateIndexMap.get(pDate);
+      return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Opens the sidecar, (re)building it first if it's missing or out of date
+     */
+    static public RiskColumnStore open(File pSource, File pSidecar, Map<String, CountyInfo> pCountyByNameMap) throws IOException
+    {
+      if (!isCurrent(pSource, pSidecar))
+      {
+        PhaseTimer timer = PhaseTimer.startLoad("risk index");
+        write(pSource, pSidecar, pCountyByNameMap);
+        timer.stop(1, pSidecar.length());
+      }
+      return new RiskColumnStore(pSidecar);
+    }
+
+    static private boolean isCurrent(File pSource, File pSidecar) throws IOException
+    {
+      if (!pSidecar.isFile() || (pSidecar.lastModified() < pSource.lastModified())) return false;
+
+      try (FileChannel channel = FileChannel.open(pSidecar.toPath(), StandardOpenOption.READ))
+      {
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 16).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && (channel.read(header) >= 0)) { }
+        if (header.hasRemaining()) return false;
+        header.flip();
+
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        return Arrays.equals(magic, MAGIC) && (header.getLong() == pSource.length()) && (header.getLong() == pSource.lastModified());
+      }
+    }
+
+    /**
+     * Two streaming passes, so the text file never has to fit in memory: writeRows reads it a
+     * line at a time into a temporary row-major file, then that's transposed into the columns
+     * TRANSPOSE_BYTES worth of dates at a time.  What's held is a line, the per-county offsets
+     * and one block of columns
+     */
+    static private void write(File pSource, File pSidecar, Map<String, CountyInfo> pCountyByNameMap) throws IOException
+    {
+      File rowFile = new File(pSidecar.getPath() + ".rows.tmp");
+      File temporary = new File(pSidecar.getPath() + ".tmp");
+
+      try
+      {
+        List<String> dates = new ArrayList<>();
+        Map<Integer, Long> offsets = new HashMap<>();
+        Map<Integer, Integer> rows = new HashMap<>();
+        writeRows(pSource, rowFile, dates, offsets, rows, pCountyByNameMap);
+
+        int[] countyIds = rows.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        int counties = countyIds.length;
+
+        int headerSize = PREFIX_SIZE + 12 * counties;
+        for (String date : dates)
+        {
+          headerSize += 2 + date.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putLong(pSource.length()).putLong(pSource.lastModified());
+        header.putInt(headerSize).putInt(dates.size()).putInt(counties);
+        for (String date : dates)
+        {
+          byte[] bytes = date.getBytes(StandardCharsets.UTF_8);
+          header.putShort((short) bytes.length).put(bytes);
+        }
+        for (int slot = 0; slot < counties; ++slot) header.putInt(countyIds[slot]);
+        for (int slot = 0; slot < counties; ++slot) header.putLong(offsets.get(countyIds[slot]));
+        header.flip();
+
+        MappedFile rowData = new MappedFile(rowFile);
+        long rowSize = 8L * dates.size();
+        int block = (int) Math.max(1, Math.min(dates.size(), TRANSPOSE_BYTES / (8L * Math.max(1, counties))));
+        double[] values = new double[block * counties];
+        ByteBuffer buffer = ByteBuffer.allocate(8 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Written to a temporary file and renamed, so a reader never sees half a sidecar
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+          while (header.hasRemaining()) channel.write(header);
+
+          for (int first = 0; first < dates.size(); first += block)
+          {
+            int count = Math.min(block, dates.size() - first);
+
+            // County by county, so each row's stretch of this block is read front to back
+            for (int slot = 0; slot < counties; ++slot)
+            {
+              long row = rowSize * rows.get(countyIds[slot]) + 8L * first;
+              for (int date = 0; date < count; ++date)
+              {
+                values[date * counties + slot] = rowData.getDouble(row + 8L * date);
+              }
+            }
+
+            buffer.clear();
+            buffer.asDoubleBuffer().put(values, 0, count * counties);
+            buffer.limit(8 * count * counties);
+            while (buffer.hasRemaining()) channel.write(buffer);
+          }
+        }
+        Files.move(temporary.toPath(), pSidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      finally
+      {
+        rowFile.delete();
+        temporary.delete();
+      }
+    }
+
+    /**
+     * Reads the text file a line at a time: the header's dates go in pDates and each county line
+     * is written to pRowFile as one big-endian double per date (NaN where missing).  pOffsets
+     * gets each county's line offset and pRows its row number; a later line for the same county
+     * replaces an earlier one
+     */
+    static private void writeRows(File pSource, File pRowFile, List<String> pDates, Map<Integer, Long> pOffsets, Map<Integer, Integer> pRows, Map<String, CountyInfo> pCountyByNameMap) throws IOException
+    {
+      try (InputStream input = new BufferedInputStream(new FileInputStream(pSource), 1 << 16);
+           DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pRowFile), 1 << 16)))
+      {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        String[] headerColumns = null;
+        long position = 0;
+        long start = 0;
+        int rows = 0;
+
+        while (true)
+        {
+          int next = input.read();
+          if ((next >= 0) && (next != '\n'))
+          {
+            line.write(next);
+            ++position;
+            continue;
+          }
+
+          // A last line without a newline still counts; the empty "line" after a final newline doesn't
+          if ((next >= 0) || (line.size() > 0))
+          {
+            byte[] bytes = line.toByteArray();
+            int length = bytes.length;
+            if ((length > 0) && (bytes[length - 1] == '\r')) --length;
+            String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+
+            if (headerColumns == null)
+            {
+              headerColumns = text.split("\t");
+              for (int loop = 2; loop < headerColumns.length; ++loop)
+              {
+                pDates.add(headerColumns[loop]);
+              }
+            }
+            else if (text.contains("Daily new cases per 100k people"))
+            {
+              RiskData data = new RiskData(headerColumns, text.split("\t"), pCountyByNameMap);
+              for (String date : pDates)
+              {
+                Double value = data.getPer100KValueMap().get(date);
+                output.writeDouble((value == null) ? Double.NaN : value);
+              }
+              pOffsets.put(data.getCountyId(), start);
+              pRows.put(data.getCountyId(), rows++);
+            }
+          }
+
+          if (next < 0) break;
+
+          line.reset();
+          ++position;
+          start = position;
+        }
+      }
+    }
+
+    private RiskColumnStore(File pSidecar) throws IOException
+    {
+      _sidecar = pSidecar;
+
+      ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(prefix, 0);
+      if (prefix.hasRemaining()) throw new EOFException(pSidecar + " is truncated");
+      prefix.flip();
+
+      prefix.position(MAGIC.length + 16);
+      int headerSize = prefix.getInt();
+      int dates = prefix.getInt();
+      int counties = prefix.getInt();
+
+      // The header records its own length, so it's read in one go whatever the date labels are
+      ByteBuffer buffer = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(buffer, 0);
+      if (buffer.hasRemaining()) throw new EOFException(pSidecar + " is truncated");
+      buffer.flip();
+      buffer.position(PREFIX_SIZE);
+
+      for (int dateIndex = 0; dateIndex < dates; ++dateIndex)
+      {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        _dates.add(new String(bytes, StandardCharsets.UTF_8));
+        _dateIndexMap.put(_dates.get(dateIndex), dateIndex);
+      }
+
+      _countyIds = new int[counties];
+      for (int slot = 0; slot < counties; ++slot) _countyIds[slot] = buffer.getInt();
+
+      _offsets = new long[counties];
+      for (int slot = 0; slot < counties; ++slot) _offsets[slot] = buffer.getLong();
+
+      _columnsStart = buffer.position();
+    }
+
+    private void readFully(ByteBuffer pBuffer, long pPosition) throws IOException
+    {
+      try (FileChannel channel = FileChannel.open(_sidecar.toPath(), StandardOpenOption.READ))
+      {
+        long position = pPosition;
+        while (pBuffer.hasRemaining())
+        {
+          int read = channel.read(pBuffer, position);
+          if (read < 0) break;
+          position += read;
+        }
+      }
+    }
+
+    /**
+     * @return the per-100K value of every county (by slot) on that date
+     */
+    public double[] readColumn(int pDateIndex) throws IOException
+    {
+      ByteBuffer buffer = ByteBuffer.allocate(8 * _countyIds.length).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(buffer, _columnsStart + 8L * _countyIds.length * pDateIndex);
+      if (buffer.hasRemaining()) throw new EOFException("Risk column " + pDateIndex + " is truncated");
+      buffer.flip();
+
+      double[] column = new double[_countyIds.length];
+      buffer.asDoubleBuffer().get(column);
+      return column;
+    }
+
+    /**
+     * Dates pFrom .. pTo inclusive. They're next to each other on disk, so they're read in runs of up to
+     * TRANSPOSE_BYTES rather than one buffer that could pass 2GB
+     */
+    public double[][] readColumns(int pFrom, int pTo) throws IOException
+    {
+      int counties = _countyIds.length;
+      double[][] columns = new double[pTo - pFrom + 1][counties];
+
+      long columnBytes = 8L * counties;
+      int perRead = (int) Math.max(1, Math.min(columns.length, TRANSPOSE_BYTES / Math.max(1, columnBytes)));
+      ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(columnBytes * perRead)).order(ByteOrder.LITTLE_ENDIAN);
+
+      for (int first = 0; first < columns.length; first += perRead)
+      {
+        int count = Math.min(perRead, columns.length - first);
+        buffer.clear().limit(Math.toIntExact(columnBytes * count));
+        readFully(buffer, _columnsStart + columnBytes * (pFrom + first));
+        if (buffer.hasRemaining()) throw new EOFException("Risk columns " + (pFrom + first) + ".." + (pFrom + first + count - 1) + " are truncated");
+        buffer.flip();
+
+        for (int loop = 0; loop < count; ++loop)
+        {
+          buffer.asDoubleBuffer().get(columns[first + loop]);
+          buffer.position(buffer.position() + (int) columnBytes);
+        }
+      }
+      return columns;
+    }
+  }
+
+  /**
+   * Dense copy of the per-100K history: one double[] column per date, indexed by county slot
+   * (NaN where there's no value for that date).  Slots are sorted by county ID, and since the
+   * county FIPS code is state * 1000 + county, each state's counties are contiguous
+   */
+  static public class RiskMatrix
+  {
+    private List<String> _dates;
+    private HashMap<String, Integer> _dateIndexMap = new HashMap<>();
+    private int[] _countyIds;
+    private HashMap<Integer, Integer> _slotByCountyIdMap = new HashMap<>();
+    private int[] _stateIds;
+    private int[] _stateStarts;
+    private double[][] _columns;
+
+    public List<String> getDates() { return _dates; }
+    public int getDateCount() { return _dates.size(); }
+    public int getCountyCount() { return _countyIds.length; }
+    public int getCountyId(int pSlot) { return _countyIds[pSlot]; }
+    public int getStateCount() { return _stateIds.length; }
+    public int getStateId(int pState) { return _stateIds[pState]; }
+    public int getStateStart(int pState) { return _stateStarts[pState]; }
+    public int getStateEnd(int pState) { return _stateStarts[pState + 1]; }
+    public double[] getColumn(int pDateIndex) { return _columns[pDateIndex]; }
+    public double getValue(int pDateIndex, int pSlot) { return _columns[pDateIndex][pSlot]; }
+
+    public int getDateIndex(String pDate)
+    {
+      Integer index = _dateIndexMap.get(pDate);
+      return (index == null) ? -1 : index;
+    }
+
+    public int getSlot(int pCountyId)
+    {
+      Integer slot = _slotByCountyIdMap.get(pCountyId);
+      return (slot == null) ? -1 : slot;
+    }
+
+    /**
+     * Straight from columns that are already dense, e.g. from RiskColumnStore
+     *
+     * @param pCountyIds ascending
+     * @param pColumns [date][slot]
+     */
+    public RiskMatrix(List<String> pDates, int[] pCountyIds, double[][] pColumns)
+    {
+      _dates = new ArrayList<>(pDates);
+      for (int loop = 0; loop < _dates.size(); ++loop)
+      {
+        _dateIndexMap.put(_dates.get(loop), loop);
+      }
+
+      _countyIds = pCountyIds.clone();
+      List<Integer> stateIds = new ArrayList<>();
+      List<Integer> stateStarts = new ArrayList<>();
+
+      for (int slot = 0; slot < _countyIds.length; ++slot)
+      {
+        _slotByCountyIdMap.put(_countyIds[slot], slot);
+
+        int stateId = stateIdForCounty(_countyIds[slot]);
+        if (stateIds.isEmpty() || (stateIds.get(stateIds.size() - 1) != stateId))
+        {
+          stateIds.add(stateId);
+          stateStarts.add(slot);
+        }
+      }
+      stateStarts.add(_countyIds.length);
+
+      _stateIds = stateIds.stream().mapToInt(Integer::intValue).toArray();
+      _stateStarts = stateStarts.stream().mapToInt(Integer::intValue).toArray();
+      _columns = pColumns;
+    }
+
+    static public int stateIdForCounty(int pCountyId)
+    {
+      return (pCountyId < 0) ? -1 : pCountyId / 1000;
+    }
+  }
+
+  /**
+   * National and per-state statistics for every date, computed once up front so the frames and
+   * reports only have to look them up.  Everything is kept in primitive arrays indexed by date
+   */
+  static public class AggregateStats
+  {
+    /**
+     * Where getColorForPer100K changes ramp (1, 10, 25, 100, 250) plus the legend's 15 and 500.
+     * Not ColorScale.RISK's legend values: those start at 0.5, a point inside the first band
+     * chosen to show its colour, and have no 25
+     */
+    static public final double[] THRESHOLDS = { 1.0, 10.0, 15.0, 25.0, 100.0, 250.0, 500.0 };
+
+    static public final double[] PERCENTILES = { 10.0, 25.0, 50.0, 75.0, 90.0, 99.0 };
+
+    private RiskMatrix _matrix;
+
+    private int[] _count;
+    private int[] _missing;
+    private double[] _mean;
+    private double[][] _percentiles;      // [percentile][date]
+    private int[][] _aboveThreshold;      // [threshold][date]; counties >= threshold
+
+    private int[][] _stateCount;          // [state][date]
+    private double[][] _stateMean;        // [state][date]
+    private double[][] _stateMedian;      // [state][date]
+
+    public RiskMatrix getMatrix() { return _matrix; }
+    public int getCount(int pDateIndex) { return _count[pDateIndex]; }
+    public int getMissing(int pDateIndex) { return _missing[pDateIndex]; }
+    public double getMean(int pDateIndex) { return _mean[pDateIndex]; }
+    public double getMedian(int pDateIndex) { return getPercentile(2, pDateIndex); }
+    public double getPercentile(int pPercentileIndex, int pDateIndex) { return _percentiles[pPercentileIndex][pDateIndex]; }
+    public int getAboveThreshold(int pThresholdIndex, int pDateIndex) { return _aboveThreshold[pThresholdIndex][pDateIndex]; }
+    public int getStateCount(int pState, int pDateIndex) { return _stateCount[pState][pDateIndex]; }
+    public double getStateMean(int pState, int pDateIndex) { return _stateMean[pState][pDateIndex]; }
+    public double getStateMedian(int pState, int pDateIndex) { return _stateMedian[pState][pDateIndex]; }
+
+    public AggregateStats(RiskMatrix pMatrix)
+    {
+      _matrix = pMatrix;
+
+      int dates = pMatrix.getDateCount();
+      int states = pMatrix.getStateCount();
+
+      _count = new int[dates];
+      _missing = new int[dates];
+      _mean = new double[dates];
+      _percentiles = new double[PERCENTILES.length][dates];
+      _aboveThreshold = new int[THRESHOLDS.length][dates];
+      _stateCount = new int[states][dates];
+      _stateMean = new double[states][dates];
+      _stateMedian = new double[states][dates];
+
+      // Dates are independent, so each one is a separate task writing only its own index
+      IntStream.range(0, dates).parallel().forEach(this::computeDate);
+    }
+
+    private void computeDate(int pDateIndex)
+    {
+      double[] column = _matrix.getColumn(pDateIndex);
+      int counties = column.length;
+
+      // Sorted copy of the present values, per state; since states are contiguous slots this
+      // leaves each state's values sorted within its own range and the rest as NaN at the end
+      double[] sorted = new double[counties];
+      double[] stateSorted = column.clone();
+
+      int present = 0;
+      for (int state = 0; state < _matrix.getStateCount(); ++state)
+      {
+        int start = _matrix.getStateStart(state);
+        int end = _matrix.getStateEnd(state);
+
+        // Simple counted loops over a primitive column with no calls or exceptions in them
+        // give the JIT a chance to unroll / vectorise
+        double sum = 0.0;
+        int count = 0;
+        for (int slot = start; slot < end; ++slot)
+        {
+          double value = column[slot];
+          boolean isPresent = (value == value);
+          sum += isPresent ? value : 0.0;
+          count += isPresent ? 1 : 0;
+        }
+
+        _stateCount[state][pDateIndex] = count;
+        _stateMean[state][pDateIndex] = (count == 0) ? Double.NaN : sum / count;
+
+        // NaN sorts last, so the first 'count' entries are the present values
+        Arrays.sort(stateSorted, start, end);
+        _stateMedian[state][pDateIndex] = medianOf(stateSorted, start, count);
+
+        System.arraycopy(stateSorted, start, sorted, present, count);
+        present += count;
+      }
+
+      Arrays.sort(sorted, 0, present);
+
+      double total = 0.0;
+      for (int loop = 0; loop < present; ++loop)
+      {
+        total += sorted[loop];
+      }
+
+      _count[pDateIndex] = present;
+      _missing[pDateIndex] = counties - present;
+      _mean[pDateIndex] = (present == 0) ? Double.NaN : total / present;
+
+      for (int loop = 0; loop < PERCENTILES.length; ++loop)
+      {
+        _percentiles[loop][pDateIndex] = percentileOf(sorted, present, PERCENTILES[loop]);
+      }
+
+      for (int loop = 0; loop < THRESHOLDS.length; ++loop)
+      {
+        _aboveThreshold[loop][pDateIndex] = present - lowerBound(sorted, present, THRESHOLDS[loop]);
+      }
+    }
+
+    static private double medianOf(double[] pSorted, int pStart, int pCount)
+    {
+      if (pCount == 0) return Double.NaN;
+      int middle = pStart + pCount / 2;
+      return (pCount % 2 == 1) ? pSorted[middle] : (pSorted[middle - 1] + pSorted[middle]) / 2;
+    }
+
+    static private double percentileOf(double[] pSorted, int pCount, double pPercentile)
+    {
+      if (pCount == 0) return Double.NaN;
+      if (pPercentile == 50.0) return medianOf(pSorted, 0, pCount);
+
+      // Linear interpolation between closest ranks
+      double rank = pPercentile / 100.0 * (pCount - 1);
+      int lower = (int) Math.floor(rank);
+      int upper = Math.min(lower + 1, pCount - 1);
+      return pSorted[lower] + (rank - lower) * (pSorted[upper] - pSorted[lower]);
+    }
+
+    /**
+     * @return index of the first value >= pValue
+     */
+    static private int lowerBound(double[] pSorted, int pCount, double pValue)
+    {
+      int low = 0;
+      int high = pCount;
+      while (low < high)
+      {
+        int middle = (low + high) >>> 1;
+        if (pSorted[middle] < pValue) low = middle + 1;
+        else high = middle;
+      }
+      return low;
+    }
+
+    /**
+     * One row per date; national figures followed by the per-state means
+     */
+    public String toCsv()
+    {
+      StringBuilder builder = new StringBuilder();
+
+      builder.append("date,count,missing,mean");
+      for (double percentile : PERCENTILES)
+      {
+        builder.append(String.format(",p%d", (int) percentile));
+      }
+      for (double threshold : THRESHOLDS)
+      {
+        builder.append(String.format(",above_%d", (int) threshold));
+      }
+      for (int state = 0; state < _matrix.getStateCount(); ++state)
+      {
+        if (_matrix.getStateId(state) < 0) continue;
+        builder.append(String.format(",state_%02d_mean", _matrix.getStateId(state)));
+      }
+      builder.append("\n");
+
+      for (int dateIndex = 0; dateIndex < _matrix.getDateCount(); ++dateIndex)
+      {
+        builder.append(_matrix.getDates().get(dateIndex))
+          .append(",").append(getCount(dateIndex))
+          .append(",").append(getMissing(dateIndex))
+          .append(",").append(String.format("%.4f", getMean(dateIndex)));
+
+        for (int loop = 0; loop < PERCENTILES.length; ++loop)
+        {
+          builder.append(",").append(String.format("%.4f", getPercentile(loop, dateIndex)));
+        }
+        for (int loop = 0; loop < THRESHOLDS.length; ++loop)
+        {
+          builder.append(",").append(getAboveThreshold(loop, dateIndex));
+        }
+        for (int state = 0; state < _matrix.getStateCount(); ++state)
+        {
+          if (_matrix.getStateId(state) < 0) continue;
+          builder.append(",").append(String.format("%.4f", getStateMean(state, dateIndex)));
+        }
+        builder.append("\n");
+      }
+
+      return builder.toString();
+    }
+  }
+
+  /**
+   * How values turn into colours (and the legend that goes with them)
+   */
+  public enum ColorScale
+  {
+    RISK("risk",     new double[] { 0.5, 10, 15, 100, 250, 500 },               new String[] { "< 1.0", "10", "15", "100", "250", "500" }),
+    GROWTH("growth", new double[] { -0.5, -0.25, 0, 0.25, 0.5, 1.0 },           new String[] { "-50%", "-25%", "0%", "+25%", "+50%", "+100%" }),
+    LOG("log",       new double[] { 10, 100, 1000, 10000, 100000, 1000000 },    new String[] { "10", "100", "1K", "10K", "100K", "1M" }),
+    ZONE("zone",     new double[] { 0, 1, 2, 3 },                               new String[] { "Green", "Yellow", "Orange", "Red" }),
+    HOPS("hops",     new double[] { 0, 1, 2, 3, 5, 8 },                         new String[] { "Crossed", "1", "2", "3", "5", "8+" }),
+    HOTSPOT("hotspot", new double[] { -3, -2, -1, 0, 1, 2, 3 },                 new String[] { "Cold 99%", "Cold 95%", "Cold 90%", "Not significant", "Hot 90%", "Hot 95%", "Hot 99%" });
+
+    static private final String[] s_zoneColors = { "rgb(0, 170, 0)", "rgb(255, 215, 0)", "rgb(255, 140, 0)", "rgb(220, 0, 0)" };
+
+    static private final String[] s_hotspotColors = { "rgb(33, 102, 172)", "rgb(103, 169, 207)", "rgb(209, 229, 240)", "rgb(240, 240, 240)",
+                                                      "rgb(253, 219, 199)", "rgb(239, 138, 98)", "rgb(178, 24, 43)" };
+
+    private String _name;
+    private double[] _legendValues;
+    private String[] _legendLabels;
+
+    public String getName() { return _name; }
+    public double[] getLegendValues() { return _legendValues; }
+    public String[] getLegendLabels() { return _legendLabels; }
+
+    ColorScale(String pName, double[] pLegendValues, String[] pLegendLabels)
+    {
+      _name = pName;
+      _legendValues = pLegendValues;
+      _legendLabels = pLegendLabels;
+    }
+
+    /**
+     * NaN (no data) comes out grey
+     */
+    public String getColor(double pValue)
+    {
+      if (pValue != pValue)
+      {
+        return getColorForPer100K(-1);
+      }
+
+      switch (this)
+      {
+        case GROWTH: return getColorForGrowth(pValue);
+        case LOG:    return getColorForCount(pValue);
+        case ZONE:   return s_zoneColors[(int) Math.max(0, Math.min(s_zoneColors.length - 1, pValue))];
+        case HOPS:   return getColorForHops(pValue);
+        case HOTSPOT: return s_hotspotColors[(int) Math.max(0, Math.min(s_hotspotColors.length - 1, pValue + 3))];
+        default:     return getColorForPer100K(pValue);
+      }
+    }
+
+    /**
+     * getColor as 0xRRGGBB
+     */
+    public int getRgb(double pValue)
+    {
+      String[] parts = getColor(pValue).replaceAll("[^0-9,]", "").split(",");
+      return (Integer.parseInt(parts[0]) << 16) | (Integer.parseInt(parts[1]) << 8) | Integer.parseInt(parts[2]);
+    }
+
+    public double getOpacity(double pValue)
+    {
+      if ((this != RISK) || (pValue != pValue)) return 1.0;
+
+      double opacity = 0.5 + pValue/100;
+      if (opacity > 1) opacity = 1;
+      return opacity;
+    }
+
+    /**
+     * Values that stand in for the scale's colours when a frame is stored as one byte per county
+     * (see renderPlayer); ascending, and no more than 255 of them.  The rate and count scales
+     * are spaced geometrically since that's where their colours change fastest
+     */
+    public double[] getBuckets()
+    {
+      switch (this)
+      {
+        case GROWTH:  return spaced(-1.0, 1.0, 201, false);
+        case LOG:     return spaced(1.0, 1000000.0, 241, true);
+        case ZONE:    return spaced(0, 3, 4, false);
+        case HOPS:    return spaced(0, 8, 9, false);
+        case HOTSPOT: return spaced(-3, 3, 7, false);
+        default:
+        {
+          double[] buckets = new double[251];
+          System.arraycopy(spaced(0.5, 2000.0, 250, true), 0, buckets, 1, 250);
+          return buckets;
+        }
+      }
+    }
+
+    static private double[] spaced(double pFrom, double pTo, int pCount, boolean pGeometric)
+    {
+      double[] values = new double[pCount];
+      for (int loop = 0; loop < pCount; ++loop)
+      {
+        double t = (pCount == 1) ? 0.0 : (double) loop / (pCount - 1);
+        values[loop] = pGeometric ? pFrom * Math.pow(pTo / pFrom, t) : pFrom + (pTo - pFrom) * t;
+      }
+      return values;
+    }
+
+    static public ColorScale forName(String pName)
+    {
+      for (ColorScale scale : values())
+      {
+        if (scale.getName().equals(pName)) return scale;
+      }
+      throw new IllegalArgumentException("Unknown colour scale: " + pName);
+    }
+  }
+
+  /**
+   * What each frame colours the counties by.  The first few change by date; the CountyInfo
+   * ones are the single snapshot from the county data, so they're the same on every date.
+   * The analysis ones (front-hops from SpreadAnalysis, hotspots from HotspotAnalysis) are added
+   * with DerivedSeries.setColumns
+   */
+  public enum RenderMetric
+  {
+    PER_100K("per100k", ColorScale.RISK),
+    ROLLING_7("roll7", ColorScale.RISK),
+    ROLLING_14("roll14", ColorScale.RISK),
+    WEEK_OVER_WEEK("wow", ColorScale.GROWTH),
+    STATE_WEIGHTED("state-weighted", ColorScale.RISK),
+    TOTAL_CASES("total-cases", ColorScale.LOG),
+    TOTAL_DEATHS("total-deaths", ColorScale.LOG),
+    DAILY_7DAY("daily-7day", ColorScale.LOG),
+    ZONE("zone", ColorScale.ZONE),
+    FRONT_HOPS("front-hops", ColorScale.HOPS),
+    HOTSPOTS("hotspots", ColorScale.HOTSPOT);
+
+    private String _name;
+    private ColorScale _defaultScale;
+
+    public String getName() { return _name; }
+    public ColorScale getDefaultScale() { return _defaultScale; }
+
+    /**
+     * @return true for cases-per-100K style values
+     */
+    public boolean isRate() { return _defaultScale == ColorScale.RISK; }
+
+    RenderMetric(String pName, ColorScale pDefaultScale)
+    {
+      _name = pName;
+      _defaultScale = pDefaultScale;
+    }
+
+    static public RenderMetric forName(String pName)
+    {
+      for (RenderMetric metric : values())
+      {
+        if (metric.getName().equals(pName)) return metric;
+      }
+      throw new IllegalArgumentException("Unknown metric: " + pName);
+    }
+  }
+
+  /**
+   * How tween frames move from one date's value to the next
+   */
+  public enum Easing
+  {
+    LINEAR("linear"),
+    SMOOTH("smooth");
+
+    private String _name;
+    public String getName() { return _name; }
+
+    Easing(String pName)
+    {
+      _name = pName;
+    }
+
+    /**
+     * @param pT 0..1 between the two dates
+     */
+    public double apply(double pT)
+    {
+      return (this == SMOOTH) ? pT * pT * (3.0 - 2.0 * pT) : pT;
+    }
+
+    static public Easing forName(String pName)
+    {
+      for (Easing easing : values())
+      {
+        if (easing.getName().equals(pName)) return easing;
+      }
+      throw new IllegalArgumentException("Unknown easing: " + pName);
+    }
+  }
+
+  /**
+   * Running trailing-window means, one date at a time per slot, ignoring missing days.  The sum
+   * is carried from date to date, so two series only agree to the last bit if they start on the
+   * same date; DerivedSeries and OutOfCoreRenderer both go through here
+   */
+  static public class RollingMean
+  {
+    private double[] _sums;
+    private int[] _counts;
+
+    public RollingMean(int pSlots)
+    {
+      _sums = new double[pSlots];
+      _counts = new int[pSlots];
+    }
+
+    /**
+     * Moves pSlot's window on a date: pEntering comes in and pLeaving (NaN while the window's
+     * still filling) drops out
+     *
+     * @return the mean of what's in the window, or NaN if nothing is
+     */
+    public double next(int pSlot, double pEntering, double pLeaving)
+    {
+      if (pEntering == pEntering)
+      {
+        _sums[pSlot] += pEntering;
+        ++_counts[pSlot];
+      }
+
+      if (pLeaving == pLeaving)
+      {
+        _sums[pSlot] -= pLeaving;
+        --_counts[pSlot];
+      }
+
+      return (_counts[pSlot] == 0) ? Double.NaN : _sums[pSlot] / _counts[pSlot];
+    }
+  }
+
+  /**
+   * Series derived from the per-100K history: trailing 7 / 14 day averages, week-over-week
+   * growth and population-weighted state and national rates.  Each window is a running sum
+   * (add the day entering, drop the day leaving) so a county costs O(dates), not O(dates * window)
+   */
+  static public class DerivedSeries
+  {
+    private RiskMatrix _matrix;
+    private AggregateStats _aggregates;
+
+    private double[] _population;           // [slot]; NaN when unknown
+    private double[][] _rolling7;           // [date][slot]
+    private double[][] _rolling14;          // [date][slot]
+    private double[][] _weekOverWeek;       // [date][slot]; 0.25 == up 25% on last week
+    private double[][] _stateWeighted;      // [state][date]
+    private double[][] _stateWeightedByCounty; // [date][slot]; the county's state rate
+    private double[] _nationalWeighted;     // [date]
+    private double[][] _nationalMean;       // [metric][date]
+    private double[][] _snapshot;           // [metric][slot]; CountyInfo metrics, NaN if unknown
+    private double[][][] _analysis;         // [metric][date][slot]; from setColumns
+
+    public RiskMatrix getMatrix() { return _matrix; }
+    public double getPopulation(int pSlot) { return _population[pSlot]; }
+    public double getStateWeighted(int pState, int pDateIndex) { return _stateWeighted[pState][pDateIndex]; }
+    public double getNationalWeighted(int pDateIndex) { return _nationalWeighted[pDateIndex]; }
+
+    /**
+     * Shares pOther's series; only the set of analysis columns is copied, so setColumns on the
+     * copy leaves pOther alone
+     */
+    public DerivedSeries(DerivedSeries pOther)
+    {
+      _matrix = pOther._matrix;
+      _aggregates = pOther._aggregates;
+      _population = pOther._population;
+      _rolling7 = pOther._rolling7;
+      _rolling14 = pOther._rolling14;
+      _weekOverWeek = pOther._weekOverWeek;
+      _stateWeighted = pOther._stateWeighted;
+      _stateWeightedByCounty = pOther._stateWeightedByCounty;
+      _nationalWeighted = pOther._nationalWeighted;
+      _snapshot = pOther._snapshot;
+      _analysis = pOther._analysis.clone();
+      _nationalMean = pOther._nationalMean.clone();
+    }
+
+    public DerivedSeries(AggregateStats pAggregates, Map<Integer, CountyInfo> pCountyByIdMap)
+    {
+      _aggregates = pAggregates;
+      _matrix = pAggregates.getMatrix();
+
+      int dates = _matrix.getDateCount();
+      int counties = _matrix.getCountyCount();
+
+      _population = new double[counties];
+      for (int slot = 0; slot < counties; ++slot)
+      {
+        _population[slot] = populationOf(pCountyByIdMap.get(_matrix.getCountyId(slot)));
+      }
+
+      _rolling7 = new double[dates][counties];
+      _rolling14 = new double[dates][counties];
+      _weekOverWeek = new double[dates][counties];
+
+      RollingMean rolling7 = new RollingMean(counties);
+      RollingMean rolling14 = new RollingMean(counties);
+      IntStream.range(0, counties).parallel().forEach(slot ->
+      {
+        rollingMean(slot, 7, rolling7, _rolling7);
+        rollingMean(slot, 14, rolling14, _rolling14);
+
+        for (int dateIndex = 0; dateIndex < dates; ++dateIndex)
+        {
+          double previous = (dateIndex < 7) ? Double.NaN : _rolling7[dateIndex - 7][slot];
+          _weekOverWeek[dateIndex][slot] = (previous > 0) ? _rolling7[dateIndex][slot] / previous - 1.0 : Double.NaN;
+        }
+      });
+
+      _stateWeighted = new double[_matrix.getStateCount()][dates];
+      _stateWeightedByCounty = new double[dates][counties];
+      _nationalWeighted = new double[dates];
+
+      IntStream.range(0, dates).parallel().forEach(this::weightDate);
+
+      _snapshot = new double[RenderMetric.values().length][];
+      _snapshot[RenderMetric.TOTAL_CASES.ordinal()] = new double[counties];
+      _snapshot[RenderMetric.TOTAL_DEATHS.ordinal()] = new double[counties];
+      _snapshot[RenderMetric.DAILY_7DAY.ordinal()] = new double[counties];
+      _snapshot[RenderMetric.ZONE.ordinal()] = new double[counties];
+
+      for (int slot = 0; slot < counties; ++slot)
+      {
+        CountyInfo info = pCountyByIdMap.get(_matrix.getCountyId(slot));
+        _snapshot[RenderMetric.TOTAL_CASES.ordinal()][slot] = ((info == null) || (info.getTotalCases() < 0)) ? Double.NaN : info.getTotalCases();
+        _snapshot[RenderMetric.TOTAL_DEATHS.ordinal()][slot] = ((info == null) || (info.getTotalDeaths() < 0)) ? Double.NaN : info.getTotalDeaths();
+        _snapshot[RenderMetric.DAILY_7DAY.ordinal()][slot] = ((info == null) || (info.getCasesDaily7dayRoll() < 0)) ? Double.NaN : info.getCasesDaily7dayRoll();
+        _snapshot[RenderMetric.ZONE.ordinal()][slot] = (info == null) ? Double.NaN : zoneOf(info.getColor());
+      }
+
+      _analysis = new double[RenderMetric.values().length][][];
+      _nationalMean = new double[RenderMetric.values().length][dates];
+      for (int dateIndex = 0; dateIndex < dates; ++dateIndex)
+      {
+        for (RenderMetric metric : RenderMetric.values())
+        {
+          if (_snapshot[metric.ordinal()] != null)
+          {
+            _nationalMean[metric.ordinal()][dateIndex] = (dateIndex == 0) ? meanOf(_snapshot[metric.ordinal()]) : _nationalMean[metric.ordinal()][0];
+          }
+        }
+        _nationalMean[RenderMetric.PER_100K.ordinal()][dateIndex] = _aggregates.getMean(dateIndex);
+        _nationalMean[RenderMetric.ROLLING_7.ordinal()][dateIndex] = meanOf(_rolling7[dateIndex]);
+        _nationalMean[RenderMetric.ROLLING_14.ordinal()][dateIndex] = meanOf(_rolling14[dateIndex]);
+        _nationalMean[RenderMetric.WEEK_OVER_WEEK.ordinal()][dateIndex] = meanOf(_weekOverWeek[dateIndex]);
+        _nationalMean[RenderMetric.STATE_WEIGHTED.ordinal()][dateIndex] = _nationalWeighted[dateIndex];
+      }
+    }
+
+    /**
+     * The county data only has rates and counts, but cases per 100K = cases / population * 100K,
+     * so the population falls out of the 7 day average and its per-100K equivalent
+     */
+    static public double populationOf(CountyInfo pCountyInfo)
+    {
+      if ((pCountyInfo == null) || (pCountyInfo.getCasesPer100K() <= 0) || (pCountyInfo.getCasesDaily7dayRoll() <= 0))
+      {
+        return Double.NaN;
+      }
+      return pCountyInfo.getCasesDaily7dayRoll() / pCountyInfo.getCasesPer100K() * 100000.0;
+    }
+
+    /**
+     * Trailing window mean over the dates, ignoring missing days
+     */
+    private void rollingMean(int pSlot, int pWindow, RollingMean pRolling, double[][] pResult)
+    {
+      for (int dateIndex = 0; dateIndex < _matrix.getDateCount(); ++dateIndex)
+      {
+        double leaving = (dateIndex >= pWindow) ? _matrix.getValue(dateIndex - pWindow, pSlot) : Double.NaN;
+        pResult[dateIndex][pSlot] = pRolling.next(pSlot, _matrix.getValue(dateIndex, pSlot), leaving);
+      }
+    }
+
+    private void weightDate(int pDateIndex)
+    {
+      double[] column = _matrix.getColumn(pDateIndex);
+      double nationalCases = 0.0;
+      double nationalPopulation = 0.0;
+
+      for (int state = 0; state < _matrix.getStateCount(); ++state)
+      {
+        double cases = 0.0;
+        double population = 0.0;
+
+        for (int slot = _matrix.getStateStart(state); slot < _matrix.getStateEnd(state); ++slot)
+        {
+          double value = column[slot];
+          double weight = _population[slot];
+          if ((value == value) && (weight == weight))
+          {
+            cases += value * weight;
+            population += weight;
+          }
+        }
+
+        double rate = (population > 0) ? cases / population : Double.NaN;
+        _stateWeighted[state][pDateIndex] = rate;
+        Arrays.fill(_stateWeightedByCounty[pDateIndex], _matrix.getStateStart(state), _matrix.getStateEnd(state), rate);
+
+        nationalCases += cases;
+        nationalPopulation += population;
+      }
+
+      _nationalWeighted[pDateIndex] = (nationalPopulation > 0) ? nationalCases / nationalPopulation : Double.NaN;
+    }
+
+    /**
+     * @return the zone colour's position on ColorScale.ZONE, or NaN if it isn't one
+     */
+    static public double zoneOf(String pColor)
+    {
+      String[] zones = ColorScale.ZONE.getLegendLabels();
+      for (int loop = 0; loop < zones.length; ++loop)
+      {
+        if (zones[loop].equalsIgnoreCase(pColor)) return loop;
+      }
+      return Double.NaN;
+    }
+
+    static private double meanOf(double[] pColumn)
+    {
+      double sum = 0.0;
+      int count = 0;
+      for (double value : pColumn)
+      {
+        if (value == value)
+        {
+          sum += value;
+          ++count;
+        }
+      }
+      return (count == 0) ? Double.NaN : sum / count;
+    }
+
+    /**
+     * @return the metric's value for every county slot on the given date
+     */
+    public double[] getColumn(RenderMetric pMetric, int pDateIndex)
+    {
+      switch (pMetric)
+      {
+        case ROLLING_7:      return _rolling7[pDateIndex];
+        case ROLLING_14:     return _rolling14[pDateIndex];
+        case WEEK_OVER_WEEK: return _weekOverWeek[pDateIndex];
+        case STATE_WEIGHTED: return _stateWeightedByCounty[pDateIndex];
+        case PER_100K:       return _matrix.getColumn(pDateIndex);
+        default:             return (_analysis[pMetric.ordinal()] != null) ? _analysis[pMetric.ordinal()][pDateIndex] : _snapshot[pMetric.ordinal()];
+      }
+    }
+
+    /**
+     * Supplies (or replaces) a metric worked out elsewhere, e.g. by SpreadAnalysis.  Only for
+     * use while a Dataset is being put together, before anything else can see this
+     *
+     * @param pColumns [date][slot]
+     * @param pNationalMean [date]
+     */
+    public void setColumns(RenderMetric pMetric, double[][] pColumns, double[] pNationalMean)
+    {
+      _analysis[pMetric.ordinal()] = pColumns;
+      _nationalMean[pMetric.ordinal()] = pNationalMean;
+    }
+
+    public double getNationalMean(RenderMetric pMetric, int pDateIndex)
+    {
+      return _nationalMean[pMetric.ordinal()][pDateIndex];
+    }
+  }
+
+  /**
+   * How the outbreak moved across county lines.  For each county: the first date its per-100K
+   * rate reached the threshold, and how fast the front was travelling when it got there (km per
+   * day from neighbours that crossed earlier, centroid to centroid).  For each date: a
+   * multi-source BFS over the adjacency from every county that had crossed by then, giving how
+   * many borders away from the front each county is.  The dates' searches run in parallel
+   */
+  static public class SpreadAnalysis
+  {
+    static public final double DEFAULT_THRESHOLD = 10.0;
+
+    static private final double EARTH_RADIUS_KM = 6371.0;
+
+    private CountyAdjacency _adjacency;
+    private RiskMatrix _matrix;
+    private double _threshold;
+
+    private int[] _crossing;                // [node]; date index, -1 if it never crossed
+    private double[] _velocity;             // [node]; km / day, NaN where there's nothing to measure from
+    private int[][] _hops;                  // [date][node]; 0 once crossed, -1 if the front can't reach it
+    private double[][] _hopsBySlot;         // [date][slot]; for rendering, NaN where unreachable
+    private double[] _meanHops;             // [date]
+    private int[] _newCrossings;            // [date]
+    private double[] _frontVelocity;        // [date]; mean velocity of that date's new crossings
+
+    public double getThreshold() { return _threshold; }
+    public CountyAdjacency getAdjacency() { return _adjacency; }
+    public int getCrossingDateIndex(int pNode) { return _crossing[pNode]; }
+    public double getVelocity(int pNode) { return _velocity[pNode]; }
+    public int[] getHops(int pDateIndex) { return _hops[pDateIndex]; }
+    public double[][] getHopsBySlot() { return _hopsBySlot; }
+    public double getMeanHops(int pDateIndex) { return _meanHops[pDateIndex]; }
+    public double[] getMeanHops() { return _meanHops; }
+    public int getNewCrossings(int pDateIndex) { return _newCrossings[pDateIndex]; }
+    public double getFrontVelocity(int pDateIndex) { return _frontVelocity[pDateIndex]; }
+
+    public SpreadAnalysis(CountyAdjacency pAdjacency, RiskMatrix pMatrix, Map<Integer, CountyPolygon> pPolygons, TransformJson pTransform, double pThreshold)
+    {
+      _adjacency = pAdjacency;
+      _matrix = pMatrix;
+      _threshold = pThreshold;
+
+      int nodes = pAdjacency.getNodeCount();
+      int dates = pMatrix.getDateCount();
+      int[] offsets = pAdjacency.getOffsets();
+      int[] neighbours = pAdjacency.getNeighbours();
+
+      int[] slots = new int[nodes];
+      double[] latitude = new double[nodes];
+      double[] longitude = new double[nodes];
+
+      for (int node = 0; node < nodes; ++node)
+      {
+        slots[node] = pMatrix.getSlot(pAdjacency.getCountyId(node));
+
+        CountyPolygon polygon = pPolygons.get(pAdjacency.getCountyId(node));
+        longitude[node] = Math.toRadians(polygon.getCentroidX() * pTransform.scale[0] + pTransform.translate[0]);
+        latitude[node] = Math.toRadians(polygon.getCentroidY() * pTransform.scale[1] + pTransform.translate[1]);
+      }
+
+      _crossing = new int[nodes];
+      IntStream.range(0, nodes).parallel().forEach(node ->
+      {
+        _crossing[node] = -1;
+        if (slots[node] < 0) return;
+
+        for (int dateIndex = 0; dateIndex < dates; ++dateIndex)
+        {
+          if (pMatrix.getValue(dateIndex, slots[node]) >= pThreshold)
+          {
+            _crossing[node] = dateIndex;
+            return;
+          }
+        }
+      });
+
+      _velocity = new double[nodes];
+      IntStream.range(0, nodes).parallel().forEach(node ->
+      {
+        double sum = 0.0;
+        int count = 0;
+
+        if (_crossing[node] >= 0)
+        {
+          for (int index = offsets[node]; index < offsets[node + 1]; ++index)
+          {
+            int neighbour = neighbours[index];
+            if ((_crossing[neighbour] < 0) || (_crossing[neighbour] >= _crossing[node])) continue;
+
+            sum += distance(latitude[node], longitude[node], latitude[neighbour], longitude[neighbour]) / (_crossing[node] - _crossing[neighbour]);
+            ++count;
+          }
+        }
+        _velocity[node] = (count == 0) ? Double.NaN : sum / count;
+      });
+
+      _hops = new int[dates][];
+      _hopsBySlot = new double[dates][pMatrix.getCountyCount()];
+      _meanHops = new double[dates];
+
+      IntStream.range(0, dates).parallel().forEach(dateIndex ->
+      {
+        _hops[dateIndex] = propagate(dateIndex);
+
+        Arrays.fill(_hopsBySlot[dateIndex], Double.NaN);
+        long sum = 0;
+        int count = 0;
+
+        for (int node = 0; node < nodes; ++node)
+        {
+          int hops = _hops[dateIndex][node];
+          if (hops < 0) continue;
+
+          if (slots[node] >= 0) _hopsBySlot[dateIndex][slots[node]] = hops;
+          sum += hops;
+          ++count;
+        }
+        _meanHops[dateIndex] = (count == 0) ? Double.NaN : (double) sum / count;
+      });
+
+      _newCrossings = new int[dates];
+      _frontVelocity = new double[dates];
+      double[] velocitySum = new double[dates];
+      int[] velocityCount = new int[dates];
+
+      for (int node = 0; node < nodes; ++node)
+      {
+        if (_crossing[node] < 0) continue;
+
+        ++_newCrossings[_crossing[node]];
+        if (_velocity[node] == _velocity[node])
+        {
+          velocitySum[_crossing[node]] += _velocity[node];
+          ++velocityCount[_crossing[node]];
+        }
+      }
+      for (int dateIndex = 0; dateIndex < dates; ++dateIndex)
+      {
+        _frontVelocity[dateIndex] = (velocityCount[dateIndex] == 0) ? Double.NaN : velocitySum[dateIndex] / velocityCount[dateIndex];
+      }
+    }
+
+    /**
+     * Breadth-first search outward from every county that had crossed by the given date
+     */
+    private int[] propagate(int pDateIndex)
+    {
+      int nodes = _adjacency.getNodeCount();
+      int[] offsets = _adjacency.getOffsets();
+      int[] neighbours = _adjacency.getNeighbours();
+
+      int[] hops = new int[nodes];
+      int[] queue = new int[nodes];
+      int head = 0;
+      int tail = 0;
+
+      for (int node = 0; node < nodes; ++node)
+      {
+        if ((_crossing[node] >= 0) && (_crossing[node] <= pDateIndex))
+        {
+          hops[node] = 0;
+          queue[tail++] = node;
+        }
+        else
+        {
+          hops[node] = -1;
+        }
+      }
+
+      while (head < tail)
+      {
+        int node = queue[head++];
+        for (int index = offsets[node]; index < offsets[node + 1]; ++index)
+        {
+          int neighbour = neighbours[index];
+          if (hops[neighbour] < 0)
+          {
+            hops[neighbour] = hops[node] + 1;
+            queue[tail++] = neighbour;
+          }
+        }
+      }
+      return hops;
+    }
+
+    /**
+     * Great circle distance in km (haversine); arguments in radians
+     */
+    static public double distance(double pLatitude1, double pLongitude1, double pLatitude2, double pLongitude2)
+    {
+      double sinLatitude = Math.sin((pLatitude2 - pLatitude1) / 2.0);
+      double sinLongitude = Math.sin((pLongitude2 - pLongitude1) / 2.0);
+      double a = sinLatitude * sinLatitude + Math.cos(pLatitude1) * Math.cos(pLatitude2) * sinLongitude * sinLongitude;
+      return 2.0 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * One row per county: when it crossed, how fast the front was moving, and its distance
+     * from the front on the last date
+     */
+    public String toCsv()
+    {
+      StringBuilder builder = new StringBuilder("countyId,crossingDate,velocityKmPerDay,neighbours,hopsOnLastDate\n");
+      int last = _matrix.getDateCount() - 1;
+
+      for (int node = 0; node < _adjacency.getNodeCount(); ++node)
+      {
+        builder.append(_adjacency.getCountyId(node)).append(',')
+          .append((_crossing[node] < 0) ? "" : _matrix.getDates().get(_crossing[node])).append(',')
+          .append((_velocity[node] == _velocity[node]) ? String.format("%.2f", _velocity[node]) : "").append(',')
+          .append(_adjacency.getDegree(node)).append(',')
+          .append((last < 0) ? -1 : _hops[last][node]).append('\n');
+      }
+      return builder.toString();
+    }
+
+    /**
+     * One row per date: how many counties crossed, the front's mean speed and the mean
+     * distance (in borders) from the front
+     */
+    public String toDateCsv()
+    {
+      StringBuilder builder = new StringBuilder("date,newCrossings,frontVelocityKmPerDay,meanHops\n");
+
+      for (int dateIndex = 0; dateIndex < _matrix.getDateCount(); ++dateIndex)
+      {
+        builder.append(_matrix.getDates().get(dateIndex)).append(',')
+          .append(_newCrossings[dateIndex]).append(',')
+          .append((_frontVelocity[dateIndex] == _frontVelocity[dateIndex]) ? String.format("%.2f", _frontVelocity[dateIndex]) : "").append(',')
+          .append((_meanHops[dateIndex] == _meanHops[dateIndex]) ? String.format("%.3f", _meanHops[dateIndex]) : "").append('\n');
+      }
+      return builder.toString();
+    }
+  }
+
+  /**
+   * Local spatial autocorrelation of the per-100K rate for every county on every date:
+   * Getis-Ord Gi* (z-score of the county plus its neighbours against the national picture) and
+   * local Moran's I (row-standardised).  Neighbours are the topology's shared borders, as sparse
+   * rows over RiskMatrix slots.  Dates are independent, so they run in parallel; each one is
+   * a couple of passes over primitive arrays with nothing allocated but its output columns
+   */
+  static public class HotspotAnalysis
+  {
+    /**
+     * Two-tailed z cut-offs for 90%, 95% and 99% confidence
+     */
+    static public final double[] Z_LEVELS = { 1.645, 1.960, 2.576 };
+
+    private RiskMatrix _matrix;
+    private int[] _offsets;                 // [slot + 1]
+    private int[] _neighbours;
+    private double[][] _gi;                 // [date][slot]; Gi* z-score, NaN without data
+    private double[][] _moran;              // [date][slot]; local Moran's I
+    private double[][] _classes;            // [date][slot]; -3..3, hot / cold at the Z_LEVELS
+    private double[] _meanClass;            // [date]
+
+    public RiskMatrix getMatrix() { return _matrix; }
+    public double[] getGi(int pDateIndex) { return _gi[pDateIndex]; }
+    public double[] getMoran(int pDateIndex) { return _moran[pDateIndex]; }
+    public double[][] getClasses() { return _classes; }
+    public double[] getMeanClass() { return _meanClass; }
+
+    public HotspotAnalysis(CountyAdjacency pAdjacency, RiskMatrix pMatrix)
+    {
+      _matrix = pMatrix;
+
+      int slots = pMatrix.getCountyCount();
+      int dates = pMatrix.getDateCount();
+
+      // Re-index the adjacency by slot, dropping counties there's no risk data for
+      int[] nodeOffsets = pAdjacency.getOffsets();
+      int[] nodeNeighbours = pAdjacency.getNeighbours();
+      int[] slotByNode = new int[pAdjacency.getNodeCount()];
+      int[] nodeBySlot = new int[slots];
+      Arrays.fill(nodeBySlot, -1);
+
+      for (int node = 0; node < slotByNode.length; ++node)
+      {
+        slotByNode[node] = pMatrix.getSlot(pAdjacency.getCountyId(node));
+        if (slotByNode[node] >= 0) nodeBySlot[slotByNode[node]] = node;
+      }
+
+      _offsets = new int[slots + 1];
+      _neighbours = new int[nodeNeighbours.length];
+      int count = 0;
+
+      for (int slot = 0; slot < slots; ++slot)
+      {
+        int node = nodeBySlot[slot];
+        if (node >= 0)
+        {
+          for (int index = nodeOffsets[node]; index < nodeOffsets[node + 1]; ++index)
+          {
+            int neighbour = slotByNode[nodeNeighbours[index]];
+            if (neighbour >= 0) _neighbours[count++] = neighbour;
+          }
+        }
+        _offsets[slot + 1] = count;
+      }
+      _neighbours = Arrays.copyOf(_neighbours, count);
+
+      _gi = new double[dates][];
+      _moran = new double[dates][];
+      _classes = new double[dates][];
+      _meanClass = new double[dates];
+
+      IntStream.range(0, dates).parallel().forEach(this::analyseDate);
+    }
+
+    private void analyseDate(int pDateIndex)
+    {
+      double[] column = _matrix.getColumn(pDateIndex);
+      int slots = column.length;
+
+      double[] gi = new double[slots];
+      double[] moran = new double[slots];
+      double[] classes = new double[slots];
+      Arrays.fill(gi, Double.NaN);
+      Arrays.fill(moran, Double.NaN);
+      Arrays.fill(classes, Double.NaN);
+
+      double sum = 0.0;
+      double sumSquares = 0.0;
+      int n = 0;
+
+      for (double value : column)
+      {
+        if (value == value)
+        {
+          sum += value;
+          sumSquares += value * value;
+          ++n;
+        }
+      }
+
+      double mean = (n == 0) ? 0.0 : sum / n;
+      double variance = (n == 0) ? 0.0 : sumSquares / n - mean * mean;
+      double deviation = Math.sqrt(Math.max(0.0, variance));
+
+      double classSum = 0.0;
+      int classCount = 0;
+
+      if ((n > 1) && (deviation > 0.0))
+      {
+        for (int slot = 0; slot < slots; ++slot)
+        {
+          double value = column[slot];
+          if (value != value) continue;
+
+          // Gi* includes the county itself; binary weights, so sum(w) == sum(w^2) == k + 1
+          double local = value;
+          double lag = 0.0;
+          int k = 0;
+
+          for (int index = _offsets[slot]; index < _offsets[slot + 1]; ++index)
+          {
+            double neighbour = column[_neighbours[index]];
+            if (neighbour == neighbour)
+            {
+              local += neighbour;
+              lag += neighbour - mean;
+              ++k;
+            }
+          }
+
+          double weights = k + 1;
+          double denominator = deviation * Math.sqrt((n * weights - weights * weights) / (n - 1));
+          double z = (denominator > 0.0) ? (local - mean * weights) / denominator : 0.0;
+          gi[slot] = z;
+
+          moran[slot] = (k == 0) ? 0.0 : ((value - mean) / variance) * (lag / k);
+
+          double significance = 0;
+          for (int level = 0; level < Z_LEVELS.length; ++level)
+          {
+            if (Math.abs(z) >= Z_LEVELS[level]) significance = level + 1;
+          }
+          classes[slot] = Math.copySign(significance, z);
+
+          classSum += classes[slot];
+          ++classCount;
+        }
+      }
+
+      _gi[pDateIndex] = gi;
+      _moran[pDateIndex] = moran;
+      _classes[pDateIndex] = classes;
+      _meanClass[pDateIndex] = (classCount == 0) ? Double.NaN : classSum / classCount;
+    }
+
+    /**
+     * One row per county per date with data
+     */
+    public String toCsv()
+    {
+      StringBuilder builder = new StringBuilder("date,countyId,giZ,localMoranI,class\n");
+
+      for (int dateIndex = 0; dateIndex < _matrix.getDateCount(); ++dateIndex)
+      {
+        String date = _matrix.getDates().get(dateIndex);
+        for (int slot = 0; slot < _matrix.getCountyCount(); ++slot)
+        {
+          if (_gi[dateIndex][slot] != _gi[dateIndex][slot]) continue;
+
+          builder.append(date).append(',')
+            .append(_matrix.getCountyId(slot)).append(',')
+            .append(String.format("%.4f,%.4f,%d\n", _gi[dateIndex][slot], _moran[dateIndex][slot], (int) _classes[dateIndex][slot]));
+        }
+      }
+      return builder.toString();
+    }
+
+    /**
+     * Little-endian: "GISTAR01", int dates, int counties, int county ids[counties], then for each
+     * date (in order) its length-prefixed UTF-8 label, float Gi*[counties] and float Moran's
+     * I[counties], NaN where there's no data
+     */
+    public byte[] toBinary()
+    {
+      int dates = _matrix.getDateCount();
+      int slots = _matrix.getCountyCount();
+
+      int size = 8 + 4 + 4 + 4 * slots;
+      for (String date : _matrix.getDates())
+      {
+        size += 2 + date.getBytes(StandardCharsets.UTF_8).length + 8 * slots;
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.put("GISTAR01".getBytes(StandardCharsets.US_ASCII));
+      buffer.putInt(dates);
+      buffer.putInt(slots);
+      for (int slot = 0; slot < slots; ++slot) buffer.putInt(_matrix.getCountyId(slot));
+
+      for (int dateIndex = 0; dateIndex < dates; ++dateIndex)
+      {
+        byte[] label = _matrix.getDates().get(dateIndex).getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) label.length).put(label);
+        for (int slot = 0; slot < slots; ++slot) buffer.putFloat((float) _gi[dateIndex][slot]);
+        for (int slot = 0; slot < slots; ++slot) buffer.putFloat((float) _moran[dateIndex][slot]);
+      }
+      return buffer.array();
+    }
+  }
+
+  /**
+   * JFR event for one load stage (reading / parsing / assembling the model); record with
+   * -XX:StartFlightRecording to see these next to the GC and allocation events
+   */
+  @Name("covidspread.LoadStage")
+  @Label("Load Stage")
+  @Category("CovidSpread")
+  static public class LoadStageEvent extends Event
+  {
+    @Label("Stage")
+    String stage;
+
+    @Label("Count")
+    long count;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /**
+   * JFR event for one phase of one frame (average, svg, write, ...)
+   */
+  @Name("covidspread.FramePhase")
+  @Label("Frame Phase")
+  @Category("CovidSpread")
+  static public class FramePhaseEvent extends Event
+  {
+    @Label("Date")
+    String date;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Count")
+    long count;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /**
+   * JFR event covering a whole frame
+   */
+  @Name("covidspread.Frame")
+  @Label("Frame")
+  @Category("CovidSpread")
+  static public class FrameEvent extends Event
+  {
+    @Label("Date")
+    String date;
+
+    @Label("Vertices")
+    long vertices;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /**
+   * Times one load stage or frame phase; stop() commits the matching JFR event and
+   * adds the numbers to the RunMetrics totals
+   */
+  static public class PhaseTimer
+  {
+    private String _date;
+    private String _phase;
+    private long _startNanos;
+    private long _startAllocated;
+    private Event _event;
+
+    public String getDate() { return _date; }
+    public String getPhase() { return _phase; }
+
+    private PhaseTimer(String pDate, String pPhase, Event pEvent)
+    {
+      _date = pDate;
+      _phase = pPhase;
+      _event = pEvent;
+      _event.begin();
+      _startAllocated = RunMetrics.currentThreadAllocatedBytes();
+      _startNanos = System.nanoTime();
+    }
+
+    static public PhaseTimer startLoad(String pStage)
+    {
+      return new PhaseTimer(null, pStage, new LoadStageEvent());
+    }
+
+    static public PhaseTimer startPhase(String pDate, String pPhase)
+    {
+      return new PhaseTimer(pDate, pPhase, new FramePhaseEvent());
+    }
+
+    static public PhaseTimer startFrame(String pDate)
+    {
+      return new PhaseTimer(pDate, null, new FrameEvent());
+    }
+
+    /**
+     * @return elapsed nanoseconds
+     */
+    public long stop(long pCount, long pBytes)
+    {
+      long nanos = System.nanoTime() - _startNanos;
+      long allocated = RunMetrics.currentThreadAllocatedBytes() - _startAllocated;
+      if (allocated < 0) allocated = 0;
+
+      _event.end();
+
+      if (_event instanceof LoadStageEvent)
+      {
+        LoadStageEvent event = (LoadStageEvent) _event;
+        event.stage = _phase;
+        event.count = pCount;
+        event.bytes = pBytes;
+        event.allocated = allocated;
+        RunMetrics.addLoadStage(_phase, nanos, pCount, pBytes, allocated);
+      }
+      else if (_event instanceof FramePhaseEvent)
+      {
+        FramePhaseEvent event = (FramePhaseEvent) _event;
+        event.date = _date;
+        event.phase = _phase;
+        event.count = pCount;
+        event.bytes = pBytes;
+        event.allocated = allocated;
+        RunMetrics.addFramePhase(_phase, nanos, pCount, pBytes, allocated);
+      }
+      else
+      {
+        FrameEvent event = (FrameEvent) _event;
+        event.date = _date;
+        event.vertices = pCount;
+        event.bytesWritten = pBytes;
+        event.allocated = allocated;
+        RunMetrics.addFrame(nanos, pCount, pBytes, allocated);
+      }
+
+      _event.commit();
+
+      return nanos;
+    }
+  }
+
+  /**
+   * Run-wide totals for the load stages and frame phases, plus every frame's time so we can
+   * report percentiles at the end of the run
+   */
+  static public class RunMetrics
+  {
+    static public class Totals
+    {
+      private long _calls;
+      private long _nanos;
+      private long _count;
+      private long _bytes;
+      private long _allocated;
+
+      public long getCalls() { return _calls; }
+      public long getNanos() { return _nanos; }
+      public long getCount() { return _count; }
+      public long getBytes() { return _bytes; }
+      public long getAllocated() { return _allocated; }
+
+      private void add(long pNanos, long pCount, long pBytes, long pAllocated)
+      {
+        ++_calls;
+        _nanos += pNanos;
+        _count += pCount;
+        _bytes += pBytes;
+        _allocated += pAllocated;
+      }
+    }
+
+    static private long s_runStartNanos = System.nanoTime();
+    static private LinkedHashMap<String, Totals> s_loadStages = new LinkedHashMap<>();
+    static private LinkedHashMap<String, Totals> s_framePhases = new LinkedHashMap<>();
+    static private Totals s_frames = new Totals();
+    static private long[] s_frameNanos = new long[256];
+
+    static private com.sun.management.ThreadMXBean s_threadBean = initThreadBean();
+
+    static private com.sun.management.ThreadMXBean initThreadBean()
+    {
+      try
+      {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.isThreadAllocatedMemorySupported() ? bean : null;
+      }
+      catch (Exception e)
+      {
+        return null;
+      }
+    }
+
+    static public long currentThreadAllocatedBytes()
+    {
+      return (s_threadBean == null) ? 0L : s_threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static synchronized public void addLoadStage(String pStage, long pNanos, long pCount, long pBytes, long pAllocated)
+    {
+      s_loadStages.computeIfAbsent(pStage, k -> new Totals()).add(pNanos, pCount, pBytes, pAllocated);
+    }
+
+    static synchronized public void addFramePhase(String pPhase, long pNanos, long pCount, long pBytes, long pAllocated)
+    {
+      s_framePhases.computeIfAbsent(pPhase, k -> new Totals()).add(pNanos, pCount, pBytes, pAllocated);
+    }
+
+    static synchronized public void addFrame(long pNanos, long pVertices, long pBytes, long pAllocated)
+    {
+      if (s_frames.getCalls() == s_frameNanos.length)
+      {
+        s_frameNanos = Arrays.copyOf(s_frameNanos, s_frameNanos.length * 2);
+      }
+      s_frameNanos[(int) s_frames.getCalls()] = pNanos;
+      s_frames.add(pNanos, pVertices, pBytes, pAllocated);
+    }
+
+    static private double percentileMillis(long[] pSorted, int pLength, double pPercentile)
+    {
+      if (pLength == 0) return 0.0;
+      int index = (int) Math.ceil(pPercentile / 100.0 * pLength) - 1;
+      if (index < 0) index = 0;
+      if (index >= pLength) index = pLength - 1;
+      return pSorted[index] / 1e6;
+    }
+
+    static private String formatRow(String pName, Totals pTotals)
+    {
+      return String.format("  %-24s %6d x %10.1f ms | count: %12d | bytes: %10.1f MB | alloc: %10.1f MB",
+        pName,
+        pTotals.getCalls(),
+        pTotals.getNanos() / 1e6,
+        pTotals.getCount(),
+        pTotals.getBytes() / 1e6,
+        pTotals.getAllocated() / 1e6);
+    }
+
+    static synchronized public String getSummary()
+    {
+      StringBuilder builder = new StringBuilder();
+      double wallSeconds = (System.nanoTime() - s_runStartNanos) / 1e9;
+
+      builder.append("Load stages:\n");
+      for (Map.Entry<String, Totals> entry : s_loadStages.entrySet())
+      {
+        builder.append(formatRow(entry.getKey(), entry.getValue())).append("\n");
+      }
+
+      builder.append("Frame phases:\n");
+      for (Map.Entry<String, Totals> entry : s_framePhases.entrySet())
+      {
+        builder.append(formatRow(entry.getKey(), entry.getValue())).append("\n");
+      }
+
+      int frames = (int) s_frames.getCalls();
+      long[] sorted = Arrays.copyOf(s_frameNanos, frames);
+      Arrays.sort(sorted);
+
+      double frameSeconds = s_frames.getNanos() / 1e9;
+
+      builder.append(String.format("Frames: %d | p50: %.2f ms | p90: %.2f ms | p99: %.2f ms | max: %.2f ms\n",
+        frames,
+        percentileMillis(sorted, frames, 50),
+        percentileMillis(sorted, frames, 90),
+        percentileMillis(sorted, frames, 99),
+        percentileMillis(sorted, frames, 100)));
+      builder.append(String.format("Throughput: %.2f frames/s | %.1f MB/s written | %.0f vertices/s | %.1f MB allocated/frame (wall: %.1f s)\n",
+        frameSeconds > 0 ? frames / frameSeconds : 0.0,
+        frameSeconds > 0 ? s_frames.getBytes() / 1e6 / frameSeconds : 0.0,
+        frameSeconds > 0 ? s_frames.getCount() / frameSeconds : 0.0,
+        frames > 0 ? s_frames.getAllocated() / 1e6 / frames : 0.0,
+        wallSeconds));
+
+      return builder.toString();
+    }
+  }
+
+  /**
+   * Command line options, given as --name=value (or just --name for flags)
+   */
+  static public class Options
+  {
+    private HashMap<String, String> _values = new HashMap<>();
+
+    public Options(String[] pArgs)
+    {
+      for (String arg : pArgs)
+      {
+        if (!arg.startsWith("--"))
+        {
+          throw new IllegalArgumentException("Unexpected argument: " + arg);
+        }
+
+        int equals = arg.indexOf('=');
+        if (equals < 0)
+        {
+          _values.put(arg.substring(2), "");
+        }
+        else
+        {
+          _values.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+      }
+    }
+
+    public boolean has(String pName)
+    {
+      return _values.containsKey(pName);
+    }
+
+    public String get(String pName, String pDefault)
+    {
+      String value = _values.get(pName);
+      return ((value == null) || value.isEmpty()) ? pDefault : value;
+    }
+
+    public int getInt(String pName, int pDefault)
+    {
+      String value = _values.get(pName);
+      return ((value == null) || value.isEmpty()) ? pDefault : Integer.parseInt(value);
+    }
+
+    public double getDouble(String pName, double pDefault)
+    {
+      String value = _values.get(pName);
+      return ((value == null) || value.isEmpty()) ? pDefault : Double.parseDouble(value);
+    }
+  }
+
+  /**
+   * Size-bounded LRU cache of rendered frames.  Concurrent requests for a frame that isn't
+   * cached yet share one render rather than each doing their own
+   */
+  static public class FrameCache
+  {
+    private long _maxBytes;
+    private long _bytes = 0;
+    private LinkedHashMap<String, byte[]> _frames = new LinkedHashMap<>(64, 0.75f, true);
+    private ConcurrentHashMap<String, CompletableFuture<byte[]>> _inFlight = new ConcurrentHashMap<>();
+
+    private AtomicLong _hits = new AtomicLong();
+    private AtomicLong _misses = new AtomicLong();
+    private AtomicLong _shared = new AtomicLong();
+    private AtomicLong _evictions = new AtomicLong();
+
+    public long getHits() { return _hits.get(); }
+    public long getMisses() { return _misses.get(); }
+    public long getShared() { return _shared.get(); }
+    public long getEvictions() { return _evictions.get(); }
+
+    public FrameCache(long pMaxBytes)
+    {
+      _maxBytes = pMaxBytes;
+    }
+
+    public synchronized long getBytes() { return _bytes; }
+    public synchronized int getSize() { return _frames.size(); }
+
+    private synchronized byte[] lookup(String pKey)
+    {
+      return _frames.get(pKey);
+    }
+
+    private synchronized void store(String pKey, byte[] pFrame)
+    {
+      if (pFrame.length > _maxBytes) return;
+
+      byte[] previous = _frames.put(pKey, pFrame);
+      _bytes += pFrame.length - ((previous == null) ? 0 : previous.length);
+
+      Iterator<Map.Entry<String, byte[]>> iterator = _frames.entrySet().iterator();
+      while ((_bytes > _maxBytes) && iterator.hasNext())
+      {
+        Map.Entry<String, byte[]> eldest = iterator.next();
+        _bytes -= eldest.getValue().length;
+        iterator.remove();
+        _evictions.incrementAndGet();
+      }
+    }
+
+    public byte[] get(String pKey, Supplier<byte[]> pRenderer)
+    {
+      byte[] frame = lookup(pKey);
+      if (frame != null)
+      {
+        _hits.incrementAndGet();
+        return frame;
+      }
+
+      CompletableFuture<byte[]> future = new CompletableFuture<>();
+      CompletableFuture<byte[]> existing = _inFlight.putIfAbsent(pKey, future);
+
+      if (existing != null)
+      {
+        _shared.incrementAndGet();
+        try
+        {
+          return existing.join();
+        }
+        catch (CompletionException e)
+        {
+          // The render we waited on failed; fail the same way it did
+          if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+          throw e;
+        }
+      }
+
+      try
+      {
+        // The render that was in flight when we looked may have finished (and been stored)
+        // before we got in
+        frame = lookup(pKey);
+        if (frame != null)
+        {
+          _hits.incrementAndGet();
+          future.complete(frame);
+          return frame;
+        }
+
+        _misses.incrementAndGet();
+        frame = pRenderer.get();
+        store(pKey, frame);
+        future.complete(frame);
+        return frame;
+      }
+      catch (RuntimeException | Error e)
+      {
+        future.completeExceptionally(e);
+        throw e;
+      }
+      finally
+      {
+        _inFlight.remove(pKey);
+      }
+    }
+
+    public String toString()
+    {
+      return String.format("Frames: %d | %.1f of %.1f MB | hits: %d | misses: %d | shared: %d | evictions: %d",
+        getSize(), getBytes() / 1e6, _maxBytes / 1e6, getHits(), getMisses(), getShared(), getEvictions());
+    }
+  }
+
+  /**
+   * Serves frames on demand from the loaded model:
+   *
+   *   /frame?date=2020-10-01&metric=roll7&state=06&format=svg|html&encoding=absolute|relative&bubbles=total|metric
+   *   /dates
+   *   /stats
+   *
+   * Handlers run on virtual threads where the JVM has them (21+), otherwise on a cached pool
+   */
+  static public class RenderServer
+  {
+    private Dataset _dataset;
+    private HttpServer _server;
+    private FrameCache _cache;
+
+    public FrameCache getCache() { return _cache; }
+
+    public RenderServer(Dataset pDataset, int pPort, long pCacheBytes) throws IOException
+    {
+      _dataset = pDataset;
+      _cache = new FrameCache(pCacheBytes);
+      _server = HttpServer.create(new InetSocketAddress(pPort), 0);
+      _server.setExecutor(createExecutor());
+      _server.createContext("/frame", this::handleFrame);
+      _server.createContext("/dates", this::handleDates);
+      _server.createContext("/stats", this::handleStats);
+    }
+
+    static private ExecutorService createExecutor()
+    {
+      try
+      {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }
+      catch (Exception e)
+      {
+        return Executors.newCachedThreadPool();
+      }
+    }
+
+    public void start()
+    {
+      _server.start();
+      System.out.println("Serving frames on port " + _server.getAddress().getPort());
+    }
+
+    public void stop()
+    {
+      _server.stop(0);
+    }
+
+    static private HashMap<String, String> parseQuery(String pQuery)
+    {
+      HashMap<String, String> parameters = new HashMap<>();
+      if (pQuery == null) return parameters;
+
+      for (String pair : pQuery.split("&"))
+      {
+        int equals = pair.indexOf('=');
+        if (equals > 0)
+        {
+          parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                         URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+      }
+      return parameters;
+    }
+
+    static private void respond(HttpExchange pExchange, int pStatus, String pContentType, byte[] pBody) throws IOException
+    {
+      pExchange.getResponseHeaders().set("Content-Type", pContentType);
+      pExchange.sendResponseHeaders(pStatus, pBody.length);
+      try (OutputStream output = pExchange.getResponseBody())
+      {
+        output.write(pBody);
+      }
+    }
+
+    private void handleFrame(HttpExchange pExchange) throws IOException
+    {
+      try
+      {
+        HashMap<String, String> parameters = parseQuery(pExchange.getRequestURI().getRawQuery());
+
+        String date = parameters.get("date");
+        if ((date == null) || (_dataset.getMatrix().getDateIndex(date) < 0))
+        {
+          respond(pExchange, 404, "text/plain", ("Unknown date: " + date).getBytes(StandardCharsets.UTF_8));
+          return;
+        }
+
+        RenderMetric metric = RenderMetric.forName(parameters.getOrDefault("metric", RenderMetric.PER_100K.getName()));
+        int stateId = Integer.parseInt(parameters.getOrDefault("state", "-1"));
+        boolean html = "html".equals(parameters.get("format"));
+        PathEncoding encoding = PathEncoding.forName(parameters.getOrDefault("encoding", PathEncoding.ABSOLUTE.getName()));
+        BubbleSize bubbleSize = parameters.containsKey("bubbles") ? BubbleSize.forName(parameters.get("bubbles")) : null;
+
+        String key = String.join("/", date, metric.getName(), Integer.toString(stateId), html ? "html" : "svg", encoding.getName(),
+                                 (bubbleSize == null) ? "map" : bubbleSize.getName());
+
+        byte[] frame = _cache.get(key, () ->
+        {
+          PhaseTimer timer = PhaseTimer.startFrame(date);
+          CovidReader reader = new CovidReader(_dataset, metric, stateId);
+          reader.setEncoding(encoding);
+          reader.setBubbleSize(bubbleSize);
+          long[] vertices = new long[1];
+          String svg = reader.renderSvg(date, vertices);
+          byte[] rendered = (html ? reader.wrapHtml(svg) : svg).getBytes(StandardCharsets.UTF_8);
+          timer.stop(vertices[0], rendered.length);
+          return rendered;
+        });
+
+        respond(pExchange, 200, html ? "text/html" : "image/svg+xml", frame);
+      }
+      catch (IllegalArgumentException e)
+      {
+        respond(pExchange, 400, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+      }
+      catch (RuntimeException e)
+      {
+        // Anything else is our fault; answer rather than let the server drop the connection
+        Throwable cause = ((e instanceof CompletionException) && (e.getCause() != null)) ? e.getCause() : e;
+        if (cause instanceof IllegalArgumentException)
+        {
+          respond(pExchange, 400, "text/plain", String.valueOf(cause.getMessage()).getBytes(StandardCharsets.UTF_8));
+          return;
+        }
+        cause.printStackTrace();
+        respond(pExchange, 500, "text/plain", ("Render failed: " + cause).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    private void handleDates(HttpExchange pExchange) throws IOException
+    {
+      respond(pExchange, 200, "text/plain", String.join("\n", _dataset.getDates()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handleStats(HttpExchange pExchange) throws IOException
+    {
+      String stats = _cache.toString() + "\n" + RunMetrics.getSummary();
+      respond(pExchange, 200, "text/plain", stats.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * The map side of a dataset: topology, county table, outlines and adjacency, plus the path
+   * strings built from them.  Read-only once constructed (the path and outline caches are
+   * filled on first use under the object's lock), so any number of threads can share one
+   */
+  static public class Geography
+  {
+    private final File _directory;
+    private final TransformJson _geographicTransform;
+    private final GeometryJson[] _geometries;
+    private final Transform _scale;
+    private final Transform _translate;
+    private final int _maxX;
+    private final int _maxY;
+    private final List<Arc> _arcs;
+    private final VertexIndex _vertexIndex;
+    private final Map<Integer, CountyInfo> _countyByIdMap;
+    private final Map<String, CountyInfo> _countyByNameMap;
+    private final Map<Integer, CountyPolygon> _countyPolygonByIdMap;
+    private final CountyAdjacency _adjacency;
+
+    private final EnumMap<PathEncoding, List<CountyGeometry>> _countyGeometry = new EnumMap<>(PathEncoding.class);
+    private String _stateOutlineLayer;
+    private Map<String, OutputSize> _outputSizes = new HashMap<>();
+
+    /**
+     * Largest frame so far, so the next builder doesn't have to keep growing
+     */
+    private volatile int _svgCapacity = 16 * 1024;
+
+    public File getDirectory() { return _directory; }
+
+    /**
+     * Quantised topology units -> longitude / latitude
+     */
+    public TransformJson getGeographicTransform() { return _geographicTransform; }
+    public Transform getScale() { return _scale; }
+    public Transform getTranslate() { return _translate; }
+    public int getMaxX() { return _maxX; }
+    public int getMaxY() { return _maxY; }
+    public List<Arc> getArcs() { return _arcs; }
+    public VertexIndex getVertexIndex() { return _vertexIndex; }
+    public Map<Integer, CountyInfo> getCountyByIdMap() { return _countyByIdMap; }
+    public Map<String, CountyInfo> getCountyByNameMap() { return _countyByNameMap; }
+    public Map<Integer, CountyPolygon> getCountyPolygonByIdMap() { return _countyPolygonByIdMap; }
+    public CountyAdjacency getAdjacency() { return _adjacency; }
+    public int getSvgCapacity() { return _svgCapacity; }
+
+    public void noteSvgLength(int pLength)
+    {
+      if (pLength > _svgCapacity) _svgCapacity = pLength;
+    }
+
+    /**
+     * Reads covid_topology.json and covid_county-data.json from the directory
+     */
+    public Geography(File pDirectory)
+    {
+      _directory = pDirectory;
+
+      PhaseTimer timer = PhaseTimer.startLoad("read topology");
+      String topologyContents = readUtf8(new File(pDirectory, "covid_topology.json"));
+      timer.stop(1, topologyContents.length());
+
+      timer = PhaseTimer.startLoad("parse topology");
+      TopologyJson topologyJson = JsonBinding.getGson().fromJson(topologyContents, TopologyJson.class);
+      timer.stop(topologyJson.arcs.length, topologyContents.length());
+
+      _geographicTransform = topologyJson.transform;
+      _geometries = topologyJson.objects.counties20m.geometries;
+
+      _scale = getMapScale(topologyJson.transform);
+      _translate = new Transform(topologyJson.transform.translate[0], topologyJson.transform.translate[1]);
+
+      timer = PhaseTimer.startLoad("expand arcs");
+      List<Arc> arcList = new ArrayList<>();
+
+      int[][][] arcs = topologyJson.arcs;
+      long arcPoints = 0;
+      int maxX = 0;
+      int maxY = 0;
+
+      for (int loop = 0; loop < arcs.length; ++loop)
+      {
+        Arc arc = new Arc(arcs[loop]);
+        arcList.add(arc);
+        arcPoints += arcs[loop].length;
+
+        for (Point point : arc.getPoints())
+        {
+          if (point.getX() > maxX) maxX = point.getX();
+          if (point.getY() > maxY) maxY = point.getY();
+        }
+      }
+      _arcs = Collections.unmodifiableList(arcList);
+      _maxX = maxX;
+      _maxY = maxY;
+      timer.stop(arcPoints, 0);
+
+      timer = PhaseTimer.startLoad("vertex index");
+      _vertexIndex = new VertexIndex(_arcs);
+      timer.stop(_vertexIndex.getVertexCount(), 0);
+
+      HashMap<Integer, CountyInfo> countyByIdMap = new HashMap<>();
+      HashMap<String, CountyInfo> countyByNameMap = new HashMap<>();
+      readCountyInfo(pDirectory, countyByIdMap, countyByNameMap);
+      _countyByIdMap = Collections.unmodifiableMap(countyByIdMap);
+      _countyByNameMap = Collections.unmodifiableMap(countyByNameMap);
+
+      timer = PhaseTimer.startLoad("county polygons");
+      HashMap<Integer, CountyPolygon> countyPolygonByIdMap = new HashMap<>();
+      long polygonPoints = 0;
+
+      for (int loop = 0; loop < _geometries.length; ++loop)
+      {
+        CountyPolygon countyPolygon = new CountyPolygon(_geometries[loop], _arcs, _vertexIndex);
+        countyPolygonByIdMap.put(countyPolygon.getCountyId(), countyPolygon);
+
+        for (Arc arc : countyPolygon.getArcs())
+        {
+          if (arc.getPoints() != null) polygonPoints += arc.getPoints().size();
+        }
+      }
+      _countyPolygonByIdMap = Collections.unmodifiableMap(countyPolygonByIdMap);
+      timer.stop(polygonPoints, 0);
+
+      timer = PhaseTimer.startLoad("adjacency");
+      _adjacency = new CountyAdjacency(_geometries, _arcs.size());
+      timer.stop(_adjacency.getEdgeCount(), 0);
+    }
+
+    /**
+     * Quantised topology units -> SVG pixels (before s_mapBuffer and the y flip)
+     */
+    static public Transform getMapScale(TransformJson pTransform)
+    {
+      double scaleXFactor = 4 * 8;
+      double scaleYFactor = 5 * 8;
+      return new Transform(scaleXFactor * pTransform.scale[0], scaleYFactor * pTransform.scale[1]);
+    }
+
+    /**
+     * Fills the maps from covid_county-data.json in the directory
+     */
+    static public void readCountyInfo(File pDirectory, Map<Integer, CountyInfo> pCountyByIdMap, Map<String, CountyInfo> pCountyByNameMap)
+    {
+      PhaseTimer timer = PhaseTimer.startLoad("read county data");
+      String countyContents = readUtf8(new File(pDirectory, "covid_county-data.json"));
+      timer.stop(1, countyContents.length());
+
+      timer = PhaseTimer.startLoad("parse county data");
+      JobsDataJson jobsDataJson = JsonBinding.getGson().fromJson(countyContents, JobsDataJson.class);
+      timer.stop(jobsDataJson.results.length, countyContents.length());
+
+      timer = PhaseTimer.startLoad("county info");
+      List<DM0Json> rows = getCountyRows(jobsDataJson);
+      CountyInfo[] decoded = rows.parallelStream().map(CountyInfo::new).toArray(CountyInfo[]::new);
+
+      for (CountyInfo countyInfo : decoded)
+      {
+        addCountyInfo(countyInfo, pCountyByIdMap, pCountyByNameMap);
+      }
+      timer.stop(rows.size(), 0);
+    }
+
+    /**
+     * As readCountyInfo(), but a row at a time as the file's read, so the payload is never held
+     */
+    static public void streamCountyInfo(File pDirectory, Map<Integer, CountyInfo> pCountyByIdMap, Map<String, CountyInfo> pCountyByNameMap) throws IOException
+    {
+      File file = new File(pDirectory, "covid_county-data.json");
+      PhaseTimer timer = PhaseTimer.startLoad("county info");
+      int[] rows = { 0 };
+      try (JsonReader reader = new JsonReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)))
+      {
+        JsonBinding.readCountyRows(reader, row ->
+        {
+          addCountyInfo(new CountyInfo(row), pCountyByIdMap, pCountyByNameMap);
+          ++rows[0];
+        });
+      }
+      timer.stop(rows[0], file.length());
+    }
+
+    /**
+     * In payload order, so a county that's in several jobs or pages ends up with the latest
+     * value of each field that any of them has
+     */
+    static private void addCountyInfo(CountyInfo pCountyInfo, Map<Integer, CountyInfo> pCountyByIdMap, Map<String, CountyInfo> pCountyByNameMap)
+    {
+      CountyInfo existing = pCountyByIdMap.get(pCountyInfo.getCountyId());
+      if (existing == null)
+      {
+        pCountyByIdMap.put(pCountyInfo.getCountyId(), pCountyInfo);
+        existing = pCountyInfo;
+      }
+      else
+      {
+        existing.merge(pCountyInfo);
+      }
+      pCountyByNameMap.put(existing.getCounty(), existing);
+    }
+
+    /**
+     * The DM0 rows of every primary hierarchy of every dataset of every result, in order;
+     * results that failed or came back empty are skipped
+     */
+    static public List<DM0Json> getCountyRows(JobsDataJson pJobsDataJson)
+    {
+      List<DM0Json> rows = new ArrayList<>();
+      if (pJobsDataJson.results == null) return rows;
+
+      for (ResultsDataJson results : pJobsDataJson.results)
+      {
+        if ((results == null) || (results.result == null) || (results.result.data == null) || (results.result.data.dsr == null)) continue;
+        if (results.result.data.dsr.DS == null) continue;
+
+        for (DSJson ds : results.result.data.dsr.DS)
+        {
+          if ((ds == null) || (ds.PH == null)) continue;
+
+          for (PHJson ph : ds.PH)
+          {
+            if ((ph != null) && (ph.DM0 != null)) rows.addAll(Arrays.asList(ph.DM0));
+          }
+        }
+      }
+      return rows;
+    }
+
+    /**
+     * Loads the history for pFrom .. pTo (null for the start / end of the data) from
+     * riskData.txt in the directory.  The window is widened by Dataset.HISTORY_LEAD days before
+     * pFrom so the rolling and week-over-week series are complete on the first date asked for
+     */
+    public Dataset loadHistory(String pFrom, String pTo) throws IOException
+    {
+      RiskColumnStore store = RiskColumnStore.open(new File(_directory, "riskData.txt"), new File(_directory, "riskData.txt.cols"), _countyByNameMap);
+      List<String> dates = store.getDates();
+
+      int requested = (pFrom == null) ? 0 : store.getDateIndex(pFrom);
+      int to = (pTo == null) ? dates.size() - 1 : store.getDateIndex(pTo);
+
+      if ((requested < 0) || (to < 0) || (requested > to))
+      {
+        throw new IllegalArgumentException(String.format("No data from %s to %s (have %s to %s)", pFrom, pTo,
+          dates.isEmpty() ? "-" : dates.get(0), dates.isEmpty() ? "-" : dates.get(dates.size() - 1)));
+      }
+      int from = Math.max(0, requested - Dataset.HISTORY_LEAD);
+
+      PhaseTimer timer = PhaseTimer.startLoad("risk data");
+      RiskMatrix matrix = new RiskMatrix(dates.subList(from, to + 1), store.getCountyIds(), store.readColumns(from, to));
+      timer.stop(matrix.getCountyCount(), 8L * matrix.getCountyCount() * matrix.getDateCount());
+
+      timer = PhaseTimer.startLoad("aggregates");
+      AggregateStats aggregates = new AggregateStats(matrix);
+      timer.stop(matrix.getDateCount(), 0);
+
+      timer = PhaseTimer.startLoad("derived series");
+      DerivedSeries derivedSeries = new DerivedSeries(aggregates, _countyByIdMap);
+      timer.stop(matrix.getDateCount(), 0);
+
+      return new Dataset(this, store, pFrom, aggregates, derivedSeries, SpreadAnalysis.DEFAULT_THRESHOLD, null);
+    }
+
+    public double transformedX(int pX)
+    {
+      return s_mapBuffer + (pX + _translate.getX()) * _scale.getX();
+    }
+
+    public double transformedY(int pY)
+    {
+      return s_mapBuffer + (_maxY - (pY + _translate.getY())) * _scale.getY();
+    }
+
+    /**
+     * Same mapping as transformedX / transformedY as an SVG transform, with y flipped by the
+     * negative scale.  Written at full precision since it multiplies coordinates in the 10^4s
+     */
+    public String getGroupTransform()
+    {
+      return getGroupTransform(_translate, _scale, _maxY);
+    }
+
+    static public String getGroupTransform(Transform pTranslate, Transform pScale, int pMaxY)
+    {
+      return String.format("translate(%s,%s) scale(%s,%s)",
+        s_mapBuffer + pTranslate.getX() * pScale.getX(),
+        s_mapBuffer + (pMaxY - pTranslate.getY()) * pScale.getY(),
+        pScale.getX(),
+        -pScale.getY());
+    }
+
+    /**
+     * Formatted outlines for every county we have info for, in the same order process() has
+     * always drawn them; built on first use of each encoding
+     */
+    synchronized public List<CountyGeometry> getCountyGeometry(PathEncoding pEncoding)
+    {
+      List<CountyGeometry> geometry = _countyGeometry.get(pEncoding);
+      if (geometry == null)
+      {
+        PhaseTimer timer = PhaseTimer.startLoad("county geometry (" + pEncoding.getName() + ")");
+        geometry = new ArrayList<>();
+        long vertices = 0;
+        long length = 0;
+
+        for (CountyPolygon countyPolygon : _countyPolygonByIdMap.values())
+        {
+          if (_countyByIdMap.get(countyPolygon.getCountyId()) == null)
+          {
+            System.out.println("Cannot find county: " + countyPolygon.getCountyId());
+            continue;
+          }
+
+          CountyGeometry countyGeometry = new CountyGeometry(countyPolygon, pEncoding, this);
+          geometry.add(countyGeometry);
+          vertices += countyGeometry.getVertices();
+          length += countyGeometry.getLength();
+        }
+
+        geometry = Collections.unmodifiableList(geometry);
+        _countyGeometry.put(pEncoding, geometry);
+        timer.stop(vertices, length);
+      }
+      return geometry;
+    }
+
+    /**
+     * The size for a --sizes entry (see OutputSize.parse), transformed on first use and then
+     * shared by every session that asks for the same one
+     */
+    synchronized public OutputSize getOutputSize(String pSpec)
+    {
+      OutputSize size = _outputSizes.get(pSpec);
+      if (size == null)
+      {
+        size = OutputSize.parse(this, pSpec);
+        _outputSizes.put(pSpec, size);
+      }
+      return size;
+    }
+
+    /**
+     * Base layer for the bubble map: every arc that's on a state line or the coast, i.e. used by
+     * counties in two different states or by only one county.  Built once, in the relative
+     * encoding, and shared by every frame
+     */
+    synchronized public String getStateOutlineLayer()
+    {
+      if (_stateOutlineLayer == null)
+      {
+        PhaseTimer timer = PhaseTimer.startLoad("state outlines");
+
+        int[] users = new int[_arcs.size()];
+        int[] firstState = new int[_arcs.size()];
+        boolean[] border = new boolean[_arcs.size()];
+
+        for (GeometryJson geometry : _geometries)
+        {
+          int stateId = Integer.valueOf(geometry.properties.STATEFP);
+          for (int[][] polygon : geometry.arcs)
+          {
+            for (int[] ring : polygon)
+            {
+              for (int piece : ring)
+              {
+                int arc = (piece < 0) ? ~piece : piece;
+                if (users[arc]++ == 0) firstState[arc] = stateId;
+                else if (firstState[arc] != stateId) border[arc] = true;
+              }
+            }
+          }
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("\t<g transform=\"").append(getGroupTransform()).append("\" style=\"fill: none; stroke: rgb(120, 120, 120); stroke-width:")
+          .append(String.format("%f", 1.0 / Math.sqrt(_scale.getX() * _scale.getY()))).append(";\">\n");
+
+        long vertices = 0;
+        for (int arc = 0; arc < _arcs.size(); ++arc)
+        {
+          if ((users[arc] == 1) || border[arc])
+          {
+            vertices += CountyGeometry.appendRelative(builder, _arcs.get(arc).getPoints());
+            builder.append("\"></path>\n");
+          }
+        }
+        builder.append("\t</g>\n");
+
+        _stateOutlineLayer = builder.toString();
+        timer.stop(vertices, builder.length());
+      }
+      return _stateOutlineLayer;
+    }
+  }
+
+  /**
+   * A Geography plus the history for a range of dates and everything worked out from it.
+   * Immutable: the "with" methods return a new Dataset that shares whatever didn't change
+   * (including the geometry caches), so sessions holding the old one are unaffected
+   */
+  static public class Dataset
+  {
+    /**
+     * Days before the first requested date that load() also reads: 14 for the 14 day mean,
+     * which also covers week-over-week (this week's 7 day mean against last week's)
+     */
+    static public final int HISTORY_LEAD = 14;
+
+    private final Geography _geography;
+    private final RiskColumnStore _store;
+    private final String _firstDate;
+    private final AggregateStats _aggregates;
+    private final DerivedSeries _derivedSeries;
+    private final SpreadAnalysis _spreadAnalysis;
+    private final HotspotAnalysis _hotspotAnalysis;
+
+    public Geography getGeography() { return _geography; }
+    public RiskColumnStore getStore() { return _store; }
+    public RiskMatrix getMatrix() { return _derivedSeries.getMatrix(); }
+    public AggregateStats getAggregates() { return _aggregates; }
+    public DerivedSeries getDerivedSeries() { return _derivedSeries; }
+    public SpreadAnalysis getSpreadAnalysis() { return _spreadAnalysis; }
+    public HotspotAnalysis getHotspotAnalysis() { return _hotspotAnalysis; }
+
+    /**
+     * Every date loaded, including the lead days before the first one asked for
+     */
+    public List<String> getDates() { return getMatrix().getDates(); }
+
+    /**
+     * The dates that were asked for, i.e. without the lead days
+     */
+    public List<String> getRequestedDates()
+    {
+      List<String> dates = getDates();
+      int first = (_firstDate == null) ? 0 : Math.max(0, dates.indexOf(_firstDate));
+      return Collections.unmodifiableList(dates.subList(first, dates.size()));
+    }
+
+    static private Dataset s_default;
+
+    /**
+     * All of the data in the working directory, loaded on first use; for callers that don't
+     * need to manage their own
+     */
+    static synchronized public Dataset getDefault()
+    {
+      if (s_default == null)
+      {
+        try
+        {
+          s_default = load(new File("."), null, null);
+        }
+        catch (IOException e)
+        {
+          throw new UncheckedIOException("Cannot load the data in the working directory", e);
+        }
+      }
+      return s_default;
+    }
+
+    /**
+     * Loads the geometry and the history for pFrom .. pTo (null for the start / end of the data)
+     * from the directory
+     */
+    static public Dataset load(File pDirectory, String pFrom, String pTo) throws IOException
+    {
+      return new Geography(pDirectory).loadHistory(pFrom, pTo);
+    }
+
+    private Dataset(Geography pGeography, RiskColumnStore pStore, String pFirstDate, AggregateStats pAggregates,
+                    DerivedSeries pDerivedSeries, double pSpreadThreshold, HotspotAnalysis pHotspotAnalysis)
+    {
+      _geography = pGeography;
+      _store = pStore;
+      _firstDate = pFirstDate;
+      _aggregates = pAggregates;
+
+      PhaseTimer timer = PhaseTimer.startLoad("spread analysis");
+      _spreadAnalysis = new SpreadAnalysis(pGeography.getAdjacency(), pDerivedSeries.getMatrix(), pGeography.getCountyPolygonByIdMap(),
+                                           pGeography.getGeographicTransform(), pSpreadThreshold);
+      timer.stop(pGeography.getAdjacency().getNodeCount(), 0);
+
+      if (pHotspotAnalysis == null)
+      {
+        timer = PhaseTimer.startLoad("hotspots");
+        pHotspotAnalysis = new HotspotAnalysis(pGeography.getAdjacency(), pDerivedSeries.getMatrix());
+        timer.stop(pDerivedSeries.getMatrix().getDateCount(), 0);
+      }
+      _hotspotAnalysis = pHotspotAnalysis;
+
+      // A copy, so a Dataset this one was derived from keeps its own analysis columns
+      _derivedSeries = new DerivedSeries(pDerivedSeries);
+      _derivedSeries.setColumns(RenderMetric.FRONT_HOPS, _spreadAnalysis.getHopsBySlot(), _spreadAnalysis.getMeanHops());
+      _derivedSeries.setColumns(RenderMetric.HOTSPOTS, _hotspotAnalysis.getClasses(), _hotspotAnalysis.getMeanClass());
+    }
+
+    /**
+     * Same data, with the spread analysis (and the front-hops metric) redone at a different
+     * per-100K threshold
+     */
+    public Dataset withSpreadThreshold(double pThreshold)
+    {
+      return new Dataset(_geography, _store, _firstDate, _aggregates, _derivedSeries, pThreshold, _hotspotAnalysis);
+    }
+
+    /**
+     * Same geometry with a different range of dates
+     */
+    public Dataset withHistory(String pFrom, String pTo) throws IOException
+    {
+      return _geography.loadHistory(pFrom, pTo);
+    }
+  }
+
+  /**
+   * The JSON files are UTF-8 (the DSR payload has a field called 'Ø'), whatever the platform's
+   * default charset is
+   */
+  static private String readUtf8(File pFile)
+  {
+    try
+    {
+      return new String(Files.readAllBytes(pFile.toPath()), StandardCharsets.UTF_8);
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException("Cannot read " + pFile, e);
+    }
+  }
+
+  public static void main(String[] args) throws IOException
+  {
+    Options options = new Options(args);
+
+    if (options.has("out-of-core"))
+    {
+      runOutOfCore(new File("."), options);
+      System.out.print(RunMetrics.getSummary());
+      return;
+    }
+
+    Dataset dataset = Dataset.load(new File("."), options.get("from", null), options.get("to", null));
+
+    if (options.has("spread-threshold"))
+    {
+      dataset = dataset.withSpreadThreshold(options.getDouble("spread-threshold", SpreadAnalysis.DEFAULT_THRESHOLD));
+    }
+
+    if (options.has("stats"))
+    {
+      EasyWriter.dumpStringToFilename(options.get("stats", "./covidStats.csv"), false, dataset.getAggregates().toCsv());
+    }
+
+    if (options.has("spread"))
+    {
+      EasyWriter.dumpStringToFilename(options.get("spread", "./covidSpread.csv"), false, dataset.getSpreadAnalysis().toCsv());
+    }
+
+    if (options.has("spread-dates"))
+    {
+      EasyWriter.dumpStringToFilename(options.get("spread-dates", "./covidSpreadDates.csv"), false, dataset.getSpreadAnalysis().toDateCsv());
+    }
+
+    if (options.has("hotspots"))
+    {
+      EasyWriter.dumpStringToFilename(options.get("hotspots", "./covidHotspots.csv"), false, dataset.getHotspotAnalysis().toCsv());
+    }
+
+    if (options.has("hotspots-bin"))
+    {
+      File hotspots = new File(options.get("hotspots-bin", "./covidHotspots.bin")).getAbsoluteFile();
+      hotspots.getParentFile().mkdirs();
+      Files.write(hotspots.toPath(), dataset.getHotspotAnalysis().toBinary());
+    }
+
+    if (options.has("serve"))
+    {
+      // Keeps running, with the model resident, until the process is killed
+      new RenderServer(dataset, options.getInt("serve", 8080), options.getInt("cache-mb", 256) * 1024L * 1024L).start();
+      return;
+    }
+
+    if (options.has("jobs"))
+    {
+      runJobs(dataset, new File(options.get("jobs", "./jobs.txt")), options.getInt("parallel", Runtime.getRuntime().availableProcessors()));
+    }
+    else
+    {
+      runJob(dataset, options);
+    }
+
+    System.out.print(RunMetrics.getSummary());
+  }
+
+  /**
+   * One render session: everything main() does after loading, driven by its own options
+   * (metric, filters, output, frames) against a shared dataset
+   */
+  static public CovidReader runJob(Dataset pDataset, Options pOptions) throws IOException
+  {
+    checkModes(pOptions);
+    List<String> dates = getFrameDates(pDataset, pOptions);
+
+    CovidReader reader = new CovidReader(pDataset,
+                                         RenderMetric.forName(pOptions.get("metric", RenderMetric.PER_100K.getName())),
+                                         pOptions.getInt("state", -1));
+
+    reader.setCompress(pOptions.has("compress"));
+    reader.setEncoding(PathEncoding.forName(pOptions.get("encoding", PathEncoding.ABSOLUTE.getName())));
+    reader.setBubbleSize(pOptions.has("bubbles") ? BubbleSize.forName(pOptions.get("bubbles", BubbleSize.TOTAL_CASES.getName())) : null);
+
+    if (pOptions.has("sizes"))
+    {
+      List<OutputSize> sizes = new ArrayList<>();
+      for (String spec : pOptions.get("sizes", "full").split(","))
+      {
+        sizes.add(pDataset.getGeography().getOutputSize(spec));
+      }
+      reader.setSizes(sizes);
+    }
+
+    if (pOptions.has("raster"))
+    {
+      reader.setRasterizer(new BandRasterizer(pDataset.getGeography(), pOptions.getInt("raster", 7680),
+                                              pOptions.getInt("bands", Runtime.getRuntime().availableProcessors())));
+    }
+
+    reader.setSink(createSink(pOptions));
+
+    List<RenderTarget> targets = new ArrayList<>();
+    if (pOptions.has("targets"))
+    {
+      for (String spec : pOptions.get("targets", "").split(","))
+      {
+        RenderTarget target = RenderTarget.parse(pDataset, spec, reader.getStateId(), reader.getEncoding());
+        target.getReader().setCompress(reader.isCompress());
+        target.getReader().setSink(reader.getSink());
+        target.getReader().shareCounters(reader);
+        targets.add(target);
+      }
+    }
+
+    int tweens = pOptions.getInt("tween", 0);
+    Easing easing = Easing.forName(pOptions.get("ease", Easing.LINEAR.getName()));
+
+    try
+    {
+      if (pOptions.has("player"))
+      {
+        reader.processPlayer(dates);
+        dates = new ArrayList<>();
+      }
+
+      for (int loop = 0; loop < dates.size(); ++loop)
+      {
+        if (!targets.isEmpty())
+        {
+          processTargets(dates.get(loop), targets);
+        }
+        else if (!reader.getSizes().isEmpty())
+        {
+          reader.processSizes(dates.get(loop));
+        }
+        else if (reader.getRasterizer() != null)
+        {
+          reader.processRaster(dates.get(loop));
+        }
+        else if (tweens > 0)
+        {
+          reader.processTweened(dates.get(loop), (loop + 1 < dates.size()) ? dates.get(loop + 1) : null, tweens, easing);
+        }
+        else
+        {
+          reader.process(dates.get(loop));
+        }
+      }
+    }
+    finally
+    {
+      reader.getSink().close();
+    }
+    return reader;
+  }
+
+  /**
+   * --archive's zip, or else the --out directory, behind an AsyncSink of --queue writes
+   */
+  static public OutputSink createSink(Options pOptions) throws IOException
+  {
+    OutputSink sink = pOptions.has("archive")
+      ? new ArchiveSink(new File(pOptions.get("archive", "./covidData.zip")), "deflated".equals(pOptions.get("archive-method", "stored")))
+      : new DirectorySink(new File(pOptions.get("out", DEFAULT_OUTPUT_DIRECTORY)));
+    return new AsyncSink(sink, pOptions.getInt("queue", 16));
+  }
+
+  /**
+   * Renders --from .. --to (every --stride'th date) of per100k, roll7 or roll14 without loading
+   * the dataset, --block-dates days of history at a time; see OutOfCoreRenderer
+   */
+  static public void runOutOfCore(File pDirectory, Options pOptions) throws IOException
+  {
+    HashMap<Integer, CountyInfo> countyByIdMap = new HashMap<>();
+    HashMap<String, CountyInfo> countyByNameMap = new HashMap<>();
+    Geography.streamCountyInfo(pDirectory, countyByIdMap, countyByNameMap);
+
+    RiskColumnStore store = RiskColumnStore.open(new File(pDirectory, "riskData.txt"), new File(pDirectory, "riskData.txt.cols"), countyByNameMap);
+    OutOfCoreGeometry geometry = OutOfCoreGeometry.open(new File(pDirectory, "covid_topology.json"), new File(pDirectory, "covid_topology.json.geom"));
+
+    List<String> available = store.getDates();
+    int stride = Math.max(1, pOptions.getInt("stride", 1));
+    int first = pOptions.has("from") ? store.getDateIndex(pOptions.get("from", null)) : 0;
+    int last = pOptions.has("to") ? store.getDateIndex(pOptions.get("to", null)) : available.size() - 1;
+
+    if ((first < 0) || (last < 0) || (first > last))
+    {
+      throw new IllegalArgumentException(String.format("No data from %s to %s", pOptions.get("from", null), pOptions.get("to", null)));
+    }
+
+    List<String> dates = new ArrayList<>();
+    for (int loop = first; loop <= last; loop += stride)
+    {
+      dates.add(available.get(loop));
+    }
+
+    OutputSink sink = createSink(pOptions);
+    try
+    {
+      OutOfCoreRenderer renderer = new OutOfCoreRenderer(geometry, store, countyByIdMap.keySet(),
+                                                         RenderMetric.forName(pOptions.get("metric", RenderMetric.PER_100K.getName())),
+                                                         pOptions.getInt("state", -1),
+                                                         sink,
+                                                         pOptions.has("compress"),
+                                                         pOptions.getInt("block-dates", OutOfCoreRenderer.DEFAULT_BLOCK_DATES));
+      renderer.render(dates);
+    }
+    finally
+    {
+      sink.close();
+    }
+  }
+
+  /**
+   * Each of --player, --targets, --sizes, --raster and --tween renders the frames its own way, so
+   * only one of them can be asked for at once.  --bubbles only applies to the plain and tweened
+   * SVG frames, and --encoding=relative to those, --targets and --player
+   */
+  static public void checkModes(Options pOptions)
+  {
+    List<String> modes = new ArrayList<>();
+    for (String mode : new String[] { "player", "targets", "sizes", "raster" })
+    {
+      if (pOptions.has(mode)) modes.add("--" + mode);
+    }
+    if (pOptions.getInt("tween", 0) > 0) modes.add("--tween");
+
+    if (modes.size() > 1)
+    {
+      throw new IllegalArgumentException(String.join(" and ", modes) + " can't be used together; give each its own run or --jobs line");
+    }
+
+    String mode = modes.isEmpty() ? null : modes.get(0);
+    if (pOptions.has("bubbles") && (mode != null) && !mode.equals("--tween"))
+    {
+      throw new IllegalArgumentException("--bubbles doesn't apply to " + mode);
+    }
+
+    PathEncoding encoding = PathEncoding.forName(pOptions.get("encoding", PathEncoding.ABSOLUTE.getName()));
+    if ((encoding != PathEncoding.ABSOLUTE) && ("--sizes".equals(mode) || "--raster".equals(mode)))
+    {
+      throw new IllegalArgumentException("--encoding=" + encoding.getName() + " doesn't apply to " + mode);
+    }
+  }
+
+  /**
+   * Frames from --from to --to, every --stride'th date; the dataset's lead days before --from
+   * are only there for the rolling series, so a date outside the dataset's range is an error
+   */
+  static public List<String> getFrameDates(Dataset pDataset, Options pOptions)
+  {
+    List<String> available = pDataset.getRequestedDates();
+    int stride = Math.max(1, pOptions.getInt("stride", 1));
+    int first = pOptions.has("from") ? available.indexOf(pOptions.get("from", null)) : 0;
+    int last = pOptions.has("to") ? available.indexOf(pOptions.get("to", null)) : available.size() - 1;
+
+    if ((first < 0) || (last < 0) || (first > last))
+    {
+      throw new IllegalArgumentException(String.format("No data from %s to %s (have %s to %s)", pOptions.get("from", null), pOptions.get("to", null),
+        available.isEmpty() ? "-" : available.get(0), available.isEmpty() ? "-" : available.get(available.size() - 1)));
+    }
+
+    List<String> dates = new ArrayList<>();
+    for (int loop = first; loop <= last; loop += stride)
+    {
+      dates.add(available.get(loop));
+    }
+    return dates;
+  }
+
+  /**
+   * main()'s options that act on the dataset or the whole run rather than a render session;
+   * they only work on the command line, not on a --jobs line
+   */
+  static private final String[] RUN_OPTIONS = { "out-of-core", "spread-threshold", "stats", "spread", "spread-dates", "hotspots", "hotspots-bin", "serve", "jobs", "parallel" };
+
+  /**
+   * Runs every line of the file (blank lines and '#' comments skipped) as its own session's
+   * options, up to pParallel at a time, all against the one dataset.  Every line is checked
+   * before any of them starts: RUN_OPTIONS, conflicting modes and dates outside the dataset
+   * are errors
+   */
+  static public void runJobs(Dataset pDataset, File pJobs, int pParallel) throws IOException
+  {
+    List<String> lines = new ArrayList<>();
+    for (String line : Files.readAllLines(pJobs.toPath(), StandardCharsets.UTF_8))
+    {
+      if (!line.trim().isEmpty() && !line.trim().startsWith("#")) lines.add(line.trim());
+    }
+
+    List<Options> jobs = new ArrayList<>();
+    for (String line : lines)
+    {
+      Options options = new Options(line.split("\\s+"));
+      for (String option : RUN_OPTIONS)
+      {
+        if (options.has(option))
+        {
+          throw new IllegalArgumentException(String.format("%s: --%s applies to the whole run; put it on the command line: %s", pJobs, option, line));
+        }
+      }
+      try
+      {
+        checkModes(options);
+        getFrameDates(pDataset, options);
+      }
+      catch (IllegalArgumentException e)
+      {
+        throw new IllegalArgumentException(String.format("%s: %s: %s", pJobs, e.getMessage(), line), e);
+      }
+      jobs.add(options);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, pParallel));
+    try
+    {
+      List<Future<CovidReader>> sessions = new ArrayList<>();
+      for (Options options : jobs)
+      {
+        sessions.add(executor.submit(() -> runJob(pDataset, options)));
+      }
+
+      for (int loop = 0; loop < sessions.size(); ++loop)
+      {
+        CovidReader session = sessions.get(loop).get();
+        System.out.println(String.format("Job %d: %d files, %.1f MB | %s", loop + 1, session.getFilesWritten(), session.getBytesWritten() / 1e6, lines.get(loop)));
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the jobs");
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new IOException("Job failed", e.getCause());
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  private RenderMetric _metric;
+  public RenderMetric getMetric() { return _metric; }
+
+  private ColorScale _colorScale;
+  public ColorScale getColorScale() { return _colorScale; }
+
+  /**
+   * Only render counties in this state (FIPS), or -1 for all of them
+   */
+  private int _stateId;
+  public int getStateId() { return _stateId; }
+
+  /**
+   * Write .svgz / .html.gz instead of plain text
+   */
+  private boolean _compress = false;
+  public boolean isCompress() { return _compress; }
+  public void setCompress(boolean pCompress) { _compress = pCompress; }
+
+  private PathEncoding _encoding = PathEncoding.ABSOLUTE;
+  public PathEncoding getEncoding() { return _encoding; }
+  public void setEncoding(PathEncoding pEncoding) { _encoding = pEncoding; }
+
+  /**
+   * Draw a bubble map sized by this instead of the choropleth; null for the choropleth
+   */
+  private BubbleSize _bubbleSize = null;
+  public BubbleSize getBubbleSize() { return _bubbleSize; }
+  public void setBubbleSize(BubbleSize pBubbleSize) { _bubbleSize = pBubbleSize; }
+
+  /**
+   * Write each frame at all of these sizes (under <size name>/svg and /html) instead of once;
+   * empty for the normal single size
+   */
+  private List<OutputSize> _sizes = new ArrayList<>();
+  public List<OutputSize> getSizes() { return _sizes; }
+  public void setSizes(List<OutputSize> pSizes) { _sizes = pSizes; }
+
+  /**
+   * Write PNGs from this instead of the SVG / HTML frames; null for the vector output
+   */
+  private BandRasterizer _rasterizer = null;
+  public BandRasterizer getRasterizer() { return _rasterizer; }
+  public void setRasterizer(BandRasterizer pRasterizer) { _rasterizer = pRasterizer; }
+
+  static public final String DEFAULT_OUTPUT_DIRECTORY = "/Users/joseph.wood/Desktop/covidData";
+
+  private OutputSink _sink = new DirectorySink(new File(DEFAULT_OUTPUT_DIRECTORY));
+  public OutputSink getSink() { return _sink; }
+  public void setSink(OutputSink pSink) { _sink = pSink; }
+
+  /**
+   * What this session has written; each session (reader) counts its own
+   */
+  private AtomicInteger _frameCount = new AtomicInteger();
+  private AtomicLong _filesWritten = new AtomicLong();
+  private AtomicLong _bytesWritten = new AtomicLong();
+
+  public long getFilesWritten() { return _filesWritten.get(); }
+  public long getBytesWritten() { return _bytesWritten.get(); }
+
+  /**
+   * Makes this reader count into pSession's counters, e.g. for the targets of a batch run
+   */
+  public void shareCounters(CovidReader pSession)
+  {
+    _frameCount = pSession._frameCount;
+    _filesWritten = pSession._filesWritten;
+    _bytesWritten = pSession._bytesWritten;
+  }
+
+  private Dataset _dataset;
+  public Dataset getDataset() { return _dataset; }
+  public Geography getGeography() { return _dataset.getGeography(); }
+
+  public CovidReader()
+  {
+    this(Dataset.getDefault(), RenderMetric.PER_100K, -1);
+  }
+
+  public CovidReader(Dataset pDataset, RenderMetric pMetric, int pStateId)
+  {
+    this(pDataset, pMetric, pMetric.getDefaultScale(), pStateId);
+  }
+
+  public CovidReader(Dataset pDataset, RenderMetric pMetric, ColorScale pColorScale, int pStateId)
+  {
+    _dataset = pDataset;
+    _metric = pMetric;
+    _colorScale = pColorScale;
+    _stateId = pStateId;
+  }
+
+  static final int s_mapBuffer = 20;
+
+  public void process(String pDate) throws IOException
+  {
+    System.out.println(pDate);
+    PhaseTimer frameTimer = PhaseTimer.startFrame(pDate);
+
+    PhaseTimer timer = PhaseTimer.startPhase(pDate, "svg");
+    long[] vertices = new long[1];
+    String svg = renderSvg(pDate, vertices);
+    String html = wrapHtml(svg);
+    timer.stop(vertices[0], svg.length() + html.length());
+
+    String prefix = (_metric == RenderMetric.PER_100K) ? "testCovid_" : "testCovid_" + _metric.getName() + "_";
+
+    timer = PhaseTimer.startPhase(pDate, "write svg");
+    writeOutput(String.format("svg/%s%03d.svg", prefix, _frameCount.getAndIncrement()), svg);
+    timer.stop(1, svg.length());
+
+    timer = PhaseTimer.startPhase(pDate, "write html");
+    writeOutput(String.format("html/%s%s.html", prefix, pDate), html);
+    timer.stop(1, html.length());
+
+    frameTimer.stop(vertices[0], svg.length() + html.length());
+  }
+
+  /**
+   * Writes pDate's frame at every size in _sizes: the values are looked up once, the sizes are
+   * rendered in parallel from their pre-transformed paths and then written in order, all with
+   * the same frame number
+   */
+  public void processSizes(String pDate) throws IOException
+  {
+    System.out.println(pDate);
+    PhaseTimer frameTimer = PhaseTimer.startFrame(pDate);
+
+    int dateIndex = _dataset.getDerivedSeries().getMatrix().getDateIndex(pDate);
+    double[] values = _dataset.getDerivedSeries().getColumn(_metric, dateIndex);
+    double overall = _dataset.getDerivedSeries().getNationalMean(_metric, dateIndex);
+
+    PhaseTimer timer = PhaseTimer.startPhase(pDate, "svg");
+    long[][] vertices = new long[_sizes.size()][1];
+    String[] svgs = IntStream.range(0, _sizes.size()).parallel()
+      .mapToObj(size -> renderSvg(_sizes.get(size), pDate, values, overall, vertices[size]))
+      .toArray(String[]::new);
+
+    long bytes = 0;
+    long vertexTotal = 0;
+    for (int size = 0; size < svgs.length; ++size)
+    {
+      bytes += svgs[size].length();
+      vertexTotal += vertices[size][0];
+    }
+    timer.stop(vertexTotal, bytes);
+
+    String prefix = (_metric == RenderMetric.PER_100K) ? "testCovid_" : "testCovid_" + _metric.getName() + "_";
+    int frame = _frameCount.getAndIncrement();
+
+    timer = PhaseTimer.startPhase(pDate, "write");
+    for (int size = 0; size < svgs.length; ++size)
+    {
+      String name = _sizes.get(size).getName();
+      writeOutput(String.format("%s/svg/%s%03d.svg", name, prefix, frame), svgs[size]);
+      writeOutput(String.format("%s/html/%s%s.html", name, prefix, pDate), wrapHtml(svgs[size]));
+    }
+    timer.stop(2 * svgs.length, 2 * bytes);
+
+    frameTimer.stop(vertexTotal, 2 * bytes);
+  }
+
+  /**
+   * Rasterises pDate's frame in bands (see BandRasterizer) and writes it as png/<prefix><date>.png
+   */
+  public void processRaster(String pDate) throws IOException
+  {
+    System.out.println(pDate);
+    PhaseTimer frameTimer = PhaseTimer.startFrame(pDate);
+
+    int dateIndex = _dataset.getDerivedSeries().getMatrix().getDateIndex(pDate);
+    double[] values = _dataset.getDerivedSeries().getColumn(_metric, dateIndex);
+    double overall = _dataset.getDerivedSeries().getNationalMean(_metric, dateIndex);
+
+    PhaseTimer timer = PhaseTimer.startPhase(pDate, "raster");
+    long[] edges = new long[1];
+    BufferedImage image = _rasterizer.render(_dataset.getDerivedSeries().getMatrix(), values, overall, _colorScale, _stateId, pDate, edges);
+    timer.stop(edges[0], 4L * image.getWidth() * image.getHeight());
+
+    timer = PhaseTimer.startPhase(pDate, "png");
+    byte[] png = ParallelPngEncoder.encode(image);
+    timer.stop(1, png.length);
+
+    String prefix = (_metric == RenderMetric.PER_100K) ? "testCovid_" : "testCovid_" + _metric.getName() + "_";
+
+    timer = PhaseTimer.startPhase(pDate, "write png");
+    writeOutput(String.format("png/%s%s.png", prefix, pDate), png);
+    timer.stop(1, png.length);
+
+    frameTimer.stop(edges[0], png.length);
+  }
+
+  /**
+   * Writes pDate's frame followed by pTweens frames blended toward pNextDate (nothing extra for
+   * the last date), so the animation moves smoothly instead of jumping a whole day per frame.
+   * Frames are rendered in parallel from the cached geometry (only the values differ) and then
+   * written in order; the HTML page is only written for the real date
+   */
+  public void processTweened(String pDate, String pNextDate, int pTweens, Easing pEasing) throws IOException
+  {
+    System.out.println(pDate);
+
+    RiskMatrix matrix = _dataset.getDerivedSeries().getMatrix();
+    int dateIndex = matrix.getDateIndex(pDate);
+    double[] from = _dataset.getDerivedSeries().getColumn(_metric, dateIndex);
+    double fromOverall = _dataset.getDerivedSeries().getNationalMean(_metric, dateIndex);
+
+    int nextIndex = (pNextDate == null) ? -1 : matrix.getDateIndex(pNextDate);
+    double[] to = (nextIndex < 0) ? from : _dataset.getDerivedSeries().getColumn(_metric, nextIndex);
+    double toOverall = (nextIndex < 0) ? fromOverall : _dataset.getDerivedSeries().getNationalMean(_metric, nextIndex);
+
+    int frames = (nextIndex < 0) ? 1 : pTweens + 1;
+
+    String[] svgs = IntStream.range(0, frames).parallel().mapToObj(frame ->
+    {
+      PhaseTimer timer = PhaseTimer.startFrame(pDate);
+      double t = pEasing.apply((double) frame / frames);
+
+      double[] values = new double[from.length];
+      for (int slot = 0; slot < values.length; ++slot)
+      {
+        values[slot] = blend(from[slot], to[slot], t);
+      }
+
+      long[] vertices = new long[1];
+      String svg = renderSvg(pDate, values, blend(fromOverall, toOverall, t), vertices);
+      timer.stop(vertices[0], svg.length());
+      return svg;
+    }).toArray(String[]::new);
+
+    String prefix = (_metric == RenderMetric.PER_100K) ? "testCovid_" : "testCovid_" + _metric.getName() + "_";
+
+    PhaseTimer timer = PhaseTimer.startPhase(pDate, "write svg");
+    long bytes = 0;
+    for (String svg : svgs)
+    {
+      writeOutput(String.format("svg/%s%03d.svg", prefix, _frameCount.getAndIncrement()), svg);
+      bytes += svg.length();
+    }
+    timer.stop(svgs.length, bytes);
+
+    String html = wrapHtml(svgs[0]);
+    timer = PhaseTimer.startPhase(pDate, "write html");
+    writeOutput(String.format("html/%s%s.html", prefix, pDate), html);
+    timer.stop(1, html.length());
+  }
+
+  /**
+   * The whole run as one page: the county paths are written once, and each date is a base64
+   * string of one byte per county (its bucket on the colour scale, 255 for no data) plus one
+   * for the national value.  The page's script decodes a date when it's first shown and only
+   * touches the paths whose bucket changed, by swapping their class
+   */
+  public String renderPlayer(List<String> pDates, long[] pVertices)
+  {
+    RiskMatrix matrix = _dataset.getDerivedSeries().getMatrix();
+    double[] buckets = _colorScale.getBuckets();
+
+    List<CountyGeometry> counties = new ArrayList<>();
+    for (CountyGeometry countyGeometry : getGeography().getCountyGeometry(_encoding))
+    {
+      if ((_stateId >= 0) && (countyGeometry.getStateId() != _stateId)) continue;
+      counties.add(countyGeometry);
+    }
+
+    int[] slots = new int[counties.size()];
+    for (int county = 0; county < slots.length; ++county)
+    {
+      slots[county] = matrix.getSlot(counties.get(county).getCountyId());
+    }
+
+    StringBuilder builder = new StringBuilder(getGeography().getSvgCapacity());
+    builder.append("<html>\n<head>\n<style>\n");
+
+    for (int bucket = 0; bucket <= buckets.length; ++bucket)
+    {
+      double value = (bucket < buckets.length) ? buckets[bucket] : Double.NaN;
+      builder.append(String.format("\tpath.b%d { fill: %s; opacity: %f; }\n", (bucket < buckets.length) ? bucket : NO_DATA_BUCKET, getColorForValue(value), getOpacityForValue(value)));
+    }
+    builder.append("</style>\n</head>\n<body>\n");
+
+    String first = pDates.isEmpty() ? "" : pDates.get(0);
+    int firstIndex = matrix.getDateIndex(first);
+    appendHeader(builder, first, (firstIndex < 0) ? Double.NaN : _dataset.getDerivedSeries().getNationalMean(_metric, firstIndex));
+    appendGroupStart(builder);
+
+    long vertices = 0;
+    for (int county = 0; county < counties.size(); ++county)
+    {
+      for (String path : counties.get(county).getPaths())
+      {
+        builder.append(path).append("Z\" data-c=\"").append(county).append("\" class=\"b").append(NO_DATA_BUCKET).append("\"></path>\n");
+      }
+      vertices += counties.get(county).getVertices();
+    }
+    builder.append("\t</g>\n</svg>\n");
+
+    builder.append("<div style=\"position: absolute; left: 20px; top: 20px; font: 16px sans-serif;\">\n")
+      .append("\t<button id=\"play\">Play</button>\n")
+      .append("\t<input id=\"frame\" type=\"range\" min=\"0\" max=\"").append(Math.max(0, pDates.size() - 1)).append("\" value=\"0\" style=\"width: 400px;\">\n")
+      .append("\t<input id=\"fps\" type=\"number\" min=\"1\" max=\"60\" value=\"10\" style=\"width: 50px;\"> fps\n")
+      .append("</div>\n");
+
+    builder.append("<script>\nvar dates = [");
+    for (int loop = 0; loop < pDates.size(); ++loop)
+    {
+      builder.append((loop == 0) ? "\"" : ",\"").append(pDates.get(loop)).append('"');
+    }
+    builder.append("];\nvar fills = [");
+    for (int bucket = 0; bucket <= NO_DATA_BUCKET; ++bucket)
+    {
+      double value = (bucket < buckets.length) ? buckets[bucket] : Double.NaN;
+      builder.append((bucket == 0) ? "\"" : ",\"").append(getColorForValue(value)).append('"');
+    }
+    builder.append("];\nvar frames = [\n");
+
+    byte[] frame = new byte[counties.size() + 1];
+    Base64.Encoder encoder = Base64.getEncoder();
+
+    for (int loop = 0; loop < pDates.size(); ++loop)
+    {
+      int dateIndex = matrix.getDateIndex(pDates.get(loop));
+      double[] values = (dateIndex < 0) ? null : _dataset.getDerivedSeries().getColumn(_metric, dateIndex);
+
+      for (int county = 0; county < slots.length; ++county)
+      {
+        frame[county] = (byte) getBucket(buckets, ((values == null) || (slots[county] < 0)) ? Double.NaN : values[slots[county]]);
+      }
+      frame[slots.length] = (byte) getBucket(buckets, (dateIndex < 0) ? Double.NaN : _dataset.getDerivedSeries().getNationalMean(_metric, dateIndex));
+
+      builder.append("\"").append(encoder.encodeToString(frame)).append((loop + 1 < pDates.size()) ? "\",\n" : "\"\n");
+    }
+    builder.append("];\n");
+
+    // The date label and the tinted background are the first text and second rect appendHeader writes
+    builder.append(String.join("\n",
+      "var paths = [];",
+      "document.querySelectorAll('path[data-c]').forEach(function(p) { var c = +p.getAttribute('data-c'); (paths[c] = paths[c] || []).push(p); });",
+      "var label = document.querySelector('svg text');",
+      "var background = document.querySelectorAll('svg rect')[1];",
+      "var decoded = [];",
+      "var shown = new Uint8Array(paths.length).fill(" + NO_DATA_BUCKET + ");",
+      "var current = 0, timer = null;",
+      "function decode(i) {",
+      "  if (!decoded[i]) { var s = atob(frames[i]); var b = new Uint8Array(s.length); for (var k = 0; k < s.length; ++k) b[k] = s.charCodeAt(k); decoded[i] = b; }",
+      "  return decoded[i];",
+      "}",
+      "function show(i) {",
+      "  var b = decode(i);",
+      "  for (var c = 0; c < paths.length; ++c) {",
+      "    if (b[c] === shown[c]) continue;",
+      "    shown[c] = b[c];",
+      "    for (var p = 0; p < paths[c].length; ++p) paths[c][p].setAttribute('class', 'b' + b[c]);",
+      "  }",
+      "  background.style.fill = fills[b[paths.length]];",
+      "  label.textContent = dates[i];",
+      "  document.getElementById('frame').value = i;",
+      "  current = i;",
+      "}",
+      "function stop() { clearInterval(timer); timer = null; document.getElementById('play').textContent = 'Play'; }",
+      "document.getElementById('play').onclick = function() {",
+      "  if (timer) { stop(); return; }",
+      "  this.textContent = 'Pause';",
+      "  timer = setInterval(function() { if (current + 1 >= dates.length) stop(); else show(current + 1); }, 1000 / (+document.getElementById('fps').value || 10));",
+      "};",
+      "document.getElementById('frame').oninput = function() { show(+this.value); };",
+      "if (dates.length) show(0);",
+      "</script>\n</body>\n</html>"));
+
+    if (pVertices != null) pVertices[0] += vertices;
+    return builder.toString();
+  }
+
+  /**
+   * Byte stored for a county with no value in the player's frames
+   */
+  static public final int NO_DATA_BUCKET = 255;
+
+  /**
+   * @return the largest bucket at or below the value (the first for anything below them all),
+   *         or NO_DATA_BUCKET for NaN
+   */
+  static public int getBucket(double[] pBuckets, double pValue)
+  {
+    if (pValue != pValue) return NO_DATA_BUCKET;
+
+    int index = Arrays.binarySearch(pBuckets, pValue);
+    if (index < 0) index = -index - 2;
+    return Math.max(0, index);
+  }
+
+  /**
+   * Writes the player page for the given dates in place of the per-date frames
+   */
+  public void processPlayer(List<String> pDates) throws IOException
+  {
+    PhaseTimer timer = PhaseTimer.startPhase("player", "svg");
+    long[] vertices = new long[1];
+    String html = renderPlayer(pDates, vertices);
+    timer.stop(vertices[0], html.length());
+
+    String prefix = (_metric == RenderMetric.PER_100K) ? "testCovid_" : "testCovid_" + _metric.getName() + "_";
+
+    timer = PhaseTimer.startPhase("player", "write html");
+    writeOutput(String.format("html/%splayer.html", prefix), html);
+    timer.stop(1, html.length());
+  }
+
+  private void writeOutput(String pName, String pContents) throws IOException
+  {
+    writeOutput(getOutputName(pName, _compress), encodeOutput(pContents, _compress));
+  }
+
+  /**
+   * Compressed, an .svg is written as .svgz and anything else gets .gz on the end
+   */
+  static public String getOutputName(String pName, boolean pCompress)
+  {
+    return !pCompress ? pName : pName.endsWith(".svg") ? pName + "z" : pName + ".gz";
+  }
+
+  /**
+   * Gzipped, or UTF-8 with a newline on the end if it hasn't one
+   */
+  static public byte[] encodeOutput(String pContents, boolean pCompress) throws IOException
+  {
+    if (pCompress)
+    {
+      return ParallelGzipOutputStream.compress(pContents);
+    }
+    return (pContents.endsWith("\n") ? pContents : pContents + "\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * As is; for output that's already compressed, like PNG
+   */
+  private void writeOutput(String pName, byte[] pBytes) throws IOException
+  {
+    _sink.write(pName, pBytes);
+
+    _filesWritten.incrementAndGet();
+    _bytesWritten.addAndGet(pBytes.length);
+  }
+
+  /**
+   * Linear blend; where one end has no data we switch over at the half way point instead
+   */
+  static public double blend(double pFrom, double pTo, double pT)
+  {
+    if ((pFrom != pFrom) || (pTo != pTo))
+    {
+      return (pT < 0.5) ? pFrom : pTo;
+    }
+    return pFrom + (pTo - pFrom) * pT;
+  }
+
+  /**
+   * Read-only view of a file through memory maps of at most SEGMENT bytes each, so it works
+   * past 2GB and only the pages actually touched are read in.  Everything in the files we map
+   * is 4 byte aligned big-endian ints (longs and doubles as two), so no read straddles a segment
+   */
+  static public class MappedFile
+  {
+    static private final long SEGMENT = 1L << 30;
+
+    private MappedByteBuffer[] _segments;
+    private long _length;
+
+    public long getLength() { return _length; }
+
+    public MappedFile(File pFile) throws IOException
+    {
+      try (FileChannel channel = FileChannel.open(pFile.toPath(), StandardOpenOption.READ))
+      {
+        _length = channel.size();
+        _segments = new MappedByteBuffer[(int) ((_length + SEGMENT - 1) / SEGMENT)];
+
+        for (int segment = 0; segment < _segments.length; ++segment)
+        {
+          long start = segment * SEGMENT;
+          _segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, _length - start));
+        }
+      }
+    }
+
+    public int getInt(long pPosition)
+    {
+      return _segments[(int) (pPosition / SEGMENT)].getInt((int) (pPosition % SEGMENT));
+    }
+
+    public long getLong(long pPosition)
+    {
+      return ((long) getInt(pPosition) << 32) | (getInt(pPosition + 4) & 0xffffffffL);
+    }
+
+    public double getDouble(long pPosition)
+    {
+      return Double.longBitsToDouble(getLong(pPosition));
+    }
+  }
+
+  /**
+   * Every county's rings, already walked out of the shared arcs, in a sidecar next to the
+   * topology (covid_topology.json.geom) that's memory mapped rather than loaded.  Counties are
+   * stored in Morton (Z) order of their bounding box centres, so drawing them in file order
+   * moves across the map instead of jumping about, and neighbours share pages.
+   *
+   * Layout, big-endian: "GEOMOOC1", topology length, topology mtime, maxX, maxY, translate x/y,
+   * scale x/y, county count, 0; then per county its ID, state and the offset of its record;
+   * then the records: ring count, and per ring the point count and x, y pairs
+   */
+  static public class OutOfCoreGeometry
+  {
+    static private final byte[] MAGIC = "GEOMOOC1".getBytes(StandardCharsets.US_ASCII);
+    static private final int HEADER_SIZE = 72;
+    static private final int INDEX_ENTRY_SIZE = 16;
+
+    private MappedFile _file;
+    private int _countyCount;
+    private int _maxX;
+    private int _maxY;
+    private TransformJson _geographicTransform;
+
+    public int getCountyCount() { return _countyCount; }
+    public int getMaxX() { return _maxX; }
+    public int getMaxY() { return _maxY; }
+    public TransformJson getGeographicTransform() { return _geographicTransform; }
+
+    /**
+     * County pIndex in spatial order
+     */
+    public int getCountyId(int pIndex) { return _file.getInt(HEADER_SIZE + (long) INDEX_ENTRY_SIZE * pIndex); }
+    public int getStateId(int pIndex) { return _file.getInt(HEADER_SIZE + (long) INDEX_ENTRY_SIZE * pIndex + 4); }
+    private long getOffset(int pIndex) { return _file.getLong(HEADER_SIZE + (long) INDEX_ENTRY_SIZE * pIndex + 8); }
+
+    /**
+     * Maps the sidecar, (re)building it first if it's missing or out of date
+     */
+    static public OutOfCoreGeometry open(File pSource, File pSidecar) throws IOException
+    {
+      if (!isCurrent(pSource, pSidecar))
+      {
+        PhaseTimer timer = PhaseTimer.startLoad("geometry file");
+        write(pSource, pSidecar);
+        timer.stop(1, pSidecar.length());
+      }
+      return new OutOfCoreGeometry(pSidecar);
+    }
+
+    static private boolean isCurrent(File pSource, File pSidecar) throws IOException
+    {
+      if (!pSidecar.isFile() || (pSidecar.length() < HEADER_SIZE) || (pSidecar.lastModified() < pSource.lastModified())) return false;
+
+      try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(pSidecar), HEADER_SIZE)))
+      {
+        byte[] magic = new byte[MAGIC.length];
+        input.readFully(magic);
+        return Arrays.equals(magic, MAGIC) && (input.readLong() == pSource.length()) && (input.readLong() == pSource.lastModified());
+      }
+    }
+
+    private OutOfCoreGeometry(File pSidecar) throws IOException
+    {
+      _file = new MappedFile(pSidecar);
+
+      long position = MAGIC.length + 16;
+      _maxX = _file.getInt(position);
+      _maxY = _file.getInt(position + 4);
+
+      _geographicTransform = new TransformJson();
+      _geographicTransform.translate = new double[] { _file.getDouble(position + 8), _file.getDouble(position + 16) };
+      _geographicTransform.scale = new double[] { _file.getDouble(position + 24), _file.getDouble(position + 32) };
+      _countyCount = _file.getInt(position + 40);
+    }
+
+    /**
+     * Streams the topology: arcs are decoded into a temporary file as they're read, then each
+     * county's rings are put together from a map of that file and appended to the body.  Only
+     * the county index (to sort it) is held in memory
+     */
+    static private void write(File pSource, File pSidecar) throws IOException
+    {
+      File arcFile = new File(pSidecar.getPath() + ".arcs.tmp");
+      File arcIndexFile = new File(pSidecar.getPath() + ".arcindex.tmp");
+      File bodyFile = new File(pSidecar.getPath() + ".body.tmp");
+      File temporary = new File(pSidecar.getPath() + ".tmp");
+
+      try
+      {
+        int arcs = -1;
+        int maxX = 0;
+        int maxY = 0;
+        TransformJson transform = null;
+        CountyIndex index = null;
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(pSource.toPath(), StandardCharsets.UTF_8)))
+        {
+          reader.beginObject();
+          while (reader.hasNext())
+          {
+            switch (reader.nextName())
+            {
+              case "arcs":
+                int[] extent = new int[2];
+                arcs = writeArcs(reader, arcFile, arcIndexFile, extent);
+                maxX = extent[0];
+                maxY = extent[1];
+                break;
+
+              case "transform":
+                transform = JsonBinding.readTransform(reader);
+                break;
+
+              case "objects":
+                // The rings are built from the arcs, which writers put first; if they haven't
+                // we'd have to hold the objects, which is what we're trying not to do
+                if (arcs < 0) throw new IOException(pSource + ": the arcs have to come before the objects");
+                index = writeCounties(reader, new MappedFile(arcFile), new MappedFile(arcIndexFile), bodyFile, maxX, maxY);
+                break;
+
+              default:
+                reader.skipValue();
+            }
+          }
+          reader.endObject();
+        }
+
+        if ((index == null) || (transform == null)) throw new IOException(pSource + " has no counties or no transform");
+
+        long[] order = index.getSpatialOrder();
+        long bodyStart = HEADER_SIZE + (long) INDEX_ENTRY_SIZE * order.length;
+
+        // Written to a temporary file and renamed, so a reader never sees half a sidecar
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16)))
+        {
+          output.write(MAGIC);
+          output.writeLong(pSource.length());
+          output.writeLong(pSource.lastModified());
+          output.writeInt(maxX);
+          output.writeInt(maxY);
+          output.writeDouble(transform.translate[0]);
+          output.writeDouble(transform.translate[1]);
+          output.writeDouble(transform.scale[0]);
+          output.writeDouble(transform.scale[1]);
+          output.writeInt(order.length);
+          output.writeInt(0);
+
+          for (long key : order)
+          {
+            int entry = (int) key;
+            output.writeInt(index.getCountyId(entry));
+            output.writeInt(index.getStateId(entry));
+            output.writeLong(bodyStart + index.getOffset(entry));
+          }
+
+          Files.copy(bodyFile.toPath(), output);
+        }
+        Files.move(temporary.toPath(), pSidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      finally
+      {
+        arcFile.delete();
+        arcIndexFile.delete();
+        bodyFile.delete();
+        temporary.delete();
+      }
+    }
+
+    /**
+     * Absolute x, y per point into pArcFile; pArcIndexFile gets each arc's first point number,
+     * plus one past the last point at the end
+     *
+     * @param pExtent set to the largest x and y
+     * @return the number of arcs
+     */
+    static private int writeArcs(JsonReader pReader, File pArcFile, File pArcIndexFile, int[] pExtent) throws IOException
+    {
+      int arcs = 0;
+      long points = 0;
+
+      try (DataOutputStream arcOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pArcFile), 1 << 16));
+           DataOutputStream indexOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pArcIndexFile), 1 << 16)))
+      {
+        pReader.beginArray();
+        while (pReader.hasNext())
+        {
+          indexOutput.writeLong(points);
+
+          // Quantised topojson: the first position is absolute, the rest are deltas
+          int x = 0;
+          int y = 0;
+          pReader.beginArray();
+          while (pReader.hasNext())
+          {
+            pReader.beginArray();
+            x += pReader.nextInt();
+            y += pReader.nextInt();
+            while (pReader.hasNext()) pReader.skipValue();
+            pReader.endArray();
+
+            arcOutput.writeInt(x);
+            arcOutput.writeInt(y);
+            ++points;
+
+            if (x > pExtent[0]) pExtent[0] = x;
+            if (y > pExtent[1]) pExtent[1] = y;
+          }
+          pReader.endArray();
+          ++arcs;
+        }
+        pReader.endArray();
+
+        indexOutput.writeLong(points);
+      }
+      return arcs;
+    }
+
+    static private CountyIndex writeCounties(JsonReader pReader, MappedFile pArcs, MappedFile pArcIndex, File pBodyFile, int pMaxX, int pMaxY) throws IOException
+    {
+      CountyIndex index = new CountyIndex();
+
+      // Counted here: DataOutputStream.size() is an int and stops at 2GB
+      long bodySize = 0;
+
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pBodyFile), 1 << 16)))
+      {
+        pReader.beginObject();
+        while (pReader.hasNext())
+        {
+          if (!pReader.nextName().equals("counties20m"))
+          {
+            pReader.skipValue();
+            continue;
+          }
+
+          pReader.beginObject();
+          while (pReader.hasNext())
+          {
+            if (!pReader.nextName().equals("geometries"))
+            {
+              pReader.skipValue();
+              continue;
+            }
+
+            int[] ring = new int[256];
+            pReader.beginArray();
+            while (pReader.hasNext())
+            {
+              GeometryJson geometry = JsonBinding.readGeometry(pReader);
+              long offset = bodySize;
+              int minX = Integer.MAX_VALUE;
+              int minY = Integer.MAX_VALUE;
+              int maxX = Integer.MIN_VALUE;
+              int maxY = Integer.MIN_VALUE;
+
+              int[][][] polygons = (geometry.arcs == null) ? new int[0][][] : geometry.arcs;
+              int rings = 0;
+              for (int[][] polygon : polygons) rings += polygon.length;
+              output.writeInt(rings);
+              bodySize += 4;
+
+              for (int[][] polygon : polygons)
+              {
+                for (int[] pieces : polygon)
+                {
+                  // Same walk as CountyPolygon: reversed arcs are ~index, and a point equal to
+                  // the one before (where arcs join) is only kept once
+                  int count = 0;
+                  for (int piece : pieces)
+                  {
+                    int arc = (piece < 0) ? ~piece : piece;
+                    long first = pArcIndex.getLong(8L * arc);
+                    long length = pArcIndex.getLong(8L * arc + 8) - first;
+
+                    for (long step = 0; step < length; ++step)
+                    {
+                      long point = first + ((piece < 0) ? length - 1 - step : step);
+                      int x = pArcs.getInt(8 * point);
+                      int y = pArcs.getInt(8 * point + 4);
+
+                      if ((count > 0) && (ring[2 * count - 2] == x) && (ring[2 * count - 1] == y)) continue;
+                      if (2 * count + 2 > ring.length) ring = Arrays.copyOf(ring, 2 * ring.length);
+                      ring[2 * count] = x;
+                      ring[2 * count + 1] = y;
+                      ++count;
+
+                      minX = Math.min(minX, x);
+                      minY = Math.min(minY, y);
+                      maxX = Math.max(maxX, x);
+                      maxY = Math.max(maxY, y);
+                    }
+                  }
+
+                  output.writeInt(count);
+                  for (int value = 0; value < 2 * count; ++value) output.writeInt(ring[value]);
+                  bodySize += 4 + 8L * count;
+                }
+              }
+
+              long key = (minX > maxX) ? 0 : morton((minX + maxX) / 2, (minY + maxY) / 2, pMaxX, pMaxY);
+              index.add(Integer.valueOf(geometry.properties.GEOID), Integer.valueOf(geometry.properties.STATEFP), offset, key);
+            }
+            pReader.endArray();
+          }
+          pReader.endObject();
+        }
+        pReader.endObject();
+      }
+      return index;
     }
 
-    public EasyReader(String pFileName)
+    /**
+     * Position on the Z curve of a point scaled to 16 bits each way
+     */
+    static private long morton(int pX, int pY, int pMaxX, int pMaxY)
     {
-      this(new File(pFileName));
-    }
+      long x = (long) pX * 0xffff / Math.max(1, pMaxX);
+      long y = (long) pY * 0xffff / Math.max(1, pMaxY);
+      long key = 0;
 
-    public EasyReader(File pFile)
-    {
-      file_ = pFile;
-      open();
+      for (int bit = 0; bit < 16; ++bit)
+      {
+        key |= ((x >> bit) & 1) << (2 * bit);
+        key |= ((y >> bit) & 1) << (2 * bit + 1);
+      }
+      return key;
     }
 
-    public static String fetchContents(File pFile)
+    /**
+     * Appends every ring of county pIndex as a relative (topology unit) path closed with pStyle
+     *
+     * @param pScratch [0] is a coordinate buffer that's grown as needed and reused across calls
+     * @return number of vertices written
+     */
+    public long appendCounty(int pIndex, StringBuilder pBuilder, String pStyle, int[][] pScratch)
     {
-      return (pFile == null) ? "" : fetchContents(pFile.getPath());
+      long position = getOffset(pIndex);
+      int rings = _file.getInt(position);
+      position += 4;
+
+      long vertices = 0;
+      for (int ring = 0; ring < rings; ++ring)
+      {
+        int points = _file.getInt(position);
+        position += 4;
+        if (points == 0) continue;
+
+        if (pScratch[0].length < 2 * points) pScratch[0] = new int[2 * points];
+        int[] coordinates = pScratch[0];
+
+        for (int value = 0; value < 2 * points; ++value)
+        {
+          coordinates[value] = _file.getInt(position);
+          position += 4;
+        }
+
+        vertices += CountyGeometry.appendRelative(pBuilder, coordinates, points);
+        pBuilder.append(pStyle);
+      }
+      return vertices;
     }
 
-    public static String fetchContents(String pFileName)
+    /**
+     * Counties seen while writing, in topology order, with their Morton keys
+     */
+    static private class CountyIndex
     {
-      StringBuilder builder = new StringBuilder();
+      private int _count;
+      private int[] _countyIds = new int[1024];
+      private int[] _stateIds = new int[1024];
+      private long[] _offsets = new long[1024];
+      private long[] _keys = new long[1024];
 
-      EasyReader reader = new EasyReader(pFileName);
+      public int getCountyId(int pEntry) { return _countyIds[pEntry]; }
+      public int getStateId(int pEntry) { return _stateIds[pEntry]; }
+      public long getOffset(int pEntry) { return _offsets[pEntry]; }
 
-      if (reader.open())
+      public void add(int pCountyId, int pStateId, long pOffset, long pKey)
       {
-        String line;
-        while ((line = reader.readLine()) != null)
+        if (_count == _countyIds.length)
         {
-          builder.append(line).append("\n");
+          _countyIds = Arrays.copyOf(_countyIds, 2 * _count);
+          _stateIds = Arrays.copyOf(_stateIds, 2 * _count);
+          _offsets = Arrays.copyOf(_offsets, 2 * _count);
+          _keys = Arrays.copyOf(_keys, 2 * _count);
         }
-
-        reader.close();
+        _countyIds[_count] = pCountyId;
+        _stateIds[_count] = pStateId;
+        _offsets[_count] = pOffset;
+        _keys[_count] = pKey;
+        ++_count;
       }
 
-      return builder.toString();
+      /**
+       * Key in the high 32 bits and entry in the low, sorted; (int) of each is the entry
+       */
+      public long[] getSpatialOrder()
+      {
+        long[] order = new long[_count];
+        for (int entry = 0; entry < _count; ++entry) order[entry] = (_keys[entry] << 32) | entry;
+        Arrays.sort(order);
+        return order;
+      }
     }
+  }
 
-    public void reset()
+  /**
+   * Renders frames without loading the map or the history: counties are read one at a time, in
+   * spatial order, from the mapped OutOfCoreGeometry, values come from the RiskColumnStore a
+   * block of dates at a time, and each file is streamed to the OutputSink as it's built (the
+   * svg, then the html, as a sink takes one stream at a time).  What's held is the county index,
+   * one block of columns, the longest ring and the sink's queue of pieces, however big the map
+   * or the history get
+   */
+  static public class OutOfCoreRenderer
+  {
+    static public final int DEFAULT_BLOCK_DATES = 32;
+
+    private OutOfCoreGeometry _geometry;
+    private RiskColumnStore _store;
+    private Set<Integer> _countyIds;
+    private RenderMetric _metric;
+    private ColorScale _colorScale;
+    private int _stateId;
+    private OutputSink _sink;
+    private boolean _compress;
+    private int _blockDates;
+    private int _window;
+
+    private int _frameCount = 0;
+    private long _filesWritten = 0;
+    private long _bytesWritten = 0;
+
+    public long getFilesWritten() { return _filesWritten; }
+    public long getBytesWritten() { return _bytesWritten; }
+
+    /**
+     * @param pCountyIds counties we have info for; the rest are skipped, as process() does
+     */
+    public OutOfCoreRenderer(OutOfCoreGeometry pGeometry, RiskColumnStore pStore, Set<Integer> pCountyIds, RenderMetric pMetric, int pStateId, OutputSink pSink, boolean pCompress, int pBlockDates)
     {
-      open();
+      switch (pMetric)
+      {
+        case PER_100K:   _window = 1; break;
+        case ROLLING_7:  _window = 7; break;
+        case ROLLING_14: _window = 14; break;
+        default:         throw new IllegalArgumentException(pMetric.getName() + " needs the whole dataset; out of core renders per100k, roll7 or roll14");
+      }
+
+      _geometry = pGeometry;
+      _store = pStore;
+      _countyIds = pCountyIds;
+      _metric = pMetric;
+      _colorScale = pMetric.getDefaultScale();
+      _stateId = pStateId;
+      _sink = pSink;
+      _compress = pCompress;
+      _blockDates = Math.max(1, pBlockDates);
     }
 
-    public boolean open()
+    /**
+     * pDates must be in order; the history is read in blocks of at most _blockDates days (plus
+     * the rolling window's lead) and each block's frames written before the next is read
+     */
+    public void render(List<String> pDates) throws IOException
     {
-      readable_ = false;
-
-      try
+      int[] slots = new int[_geometry.getCountyCount()];
+      for (int county = 0; county < slots.length; ++county)
       {
-        reader_ = new BufferedReader(new FileReader(file_));
+        slots[county] = Arrays.binarySearch(_store.getCountyIds(), _geometry.getCountyId(county));
       }
-      catch (Exception e)
+
+      // The rolling sums carry over from date to date, as DerivedSeries' do, so they start where
+      // the in-memory Dataset would (HISTORY_LEAD days before the first date) and take in every
+      // date from there; per100k only reads the blocks the dates asked for are in
+      int counties = _store.getCountyCount();
+      RollingMean rolling = new RollingMean(counties);
+      double[] means = new double[counties];
+      int last = _store.getDateIndex(pDates.get(pDates.size() - 1));
+      int start = Math.max(0, _store.getDateIndex(pDates.get(0)) - Dataset.HISTORY_LEAD);
+      int date = start;
+
+      int next = 0;
+      while (next < pDates.size())
       {
-        reader_ = null;
-        return false;
-      }
+        if (_window == 1) date = _store.getDateIndex(pDates.get(next));
+        int from = Math.max(start, date - _window);
+        int to = Math.min(last, date + _blockDates - 1);
 
-      readable_ = true;
+        PhaseTimer timer = PhaseTimer.startLoad("risk block " + _store.getDates().get(date));
+        double[][] columns = _store.readColumns(from, to);
+        timer.stop(columns.length, 8L * columns.length * counties);
 
-      return readable_;
+        for (; date <= to; ++date)
+        {
+          double[] values = columns[date - from];
+          if (_window > 1)
+          {
+            for (int slot = 0; slot < counties; ++slot)
+            {
+              means[slot] = rolling.next(slot, values[slot], (date - _window >= start) ? columns[date - _window - from][slot] : Double.NaN);
+            }
+            values = means;
+          }
+
+          if ((next < pDates.size()) && (_store.getDateIndex(pDates.get(next)) == date))
+          {
+            renderFrame(pDates.get(next++), values, meanOf(values), slots);
+          }
+        }
+      }
     }
 
-    public void close()
+    static private double meanOf(double[] pValues)
     {
-      if (reader_ != null)
+      double sum = 0.0;
+      int count = 0;
+      for (double value : pValues)
       {
-        try
-        {
-          reader_.close();
-        }
-        catch (IOException e)
+        if (value == value)
         {
+          sum += value;
+          ++count;
         }
       }
-      readable_ = false;
+      return (count == 0) ? Double.NaN : sum / count;
     }
 
-    public String readLine()
+    /**
+     * Writes the same svg and html as process() with the relative encoding, except that the
+     * counties come in spatial order
+     */
+    private void renderFrame(String pDate, double[] pValues, double pOverall, int[] pSlots) throws IOException
     {
-      if (!readable_)
-      {
-        return null;
-      }
+      System.out.println(pDate);
+      PhaseTimer timer = PhaseTimer.startFrame(pDate);
+      long bytesBefore = _bytesWritten;
 
-      try
+      String prefix = (_metric == RenderMetric.PER_100K) ? "testCovid_" : "testCovid_" + _metric.getName() + "_";
+      long vertices = writeFrame(String.format("svg/%s%03d.svg", prefix, _frameCount++), "", "\n", pDate, pValues, pOverall, pSlots);
+      writeFrame(String.format("html/%s%s.html", prefix, pDate), "<html>\n<body>\n", "\n</body>\n</html>\n", pDate, pValues, pOverall, pSlots);
+
+      timer.stop(vertices, _bytesWritten - bytesBefore);
+    }
+
+    /**
+     * Streams one file of the frame to the sink, each county as soon as it's built
+     *
+     * @return the vertices written
+     */
+    private long writeFrame(String pName, String pBefore, String pAfter, String pDate, double[] pValues, double pOverall, int[] pSlots) throws IOException
+    {
+      StringBuilder builder = new StringBuilder(pBefore);
+      long vertices = 0;
+      int[][] scratch = { new int[256] };
+
+      CountingOutputStream counter = new CountingOutputStream(_sink.open(getOutputName(pName, _compress)));
+      try (Writer output = new BufferedWriter(new OutputStreamWriter(_compress ? new GZIPOutputStream(counter, 1 << 16) : counter, StandardCharsets.UTF_8), 1 << 16))
       {
-        return reader_.readLine();
+        Transform translate = new Transform(_geometry.getGeographicTransform().translate[0], _geometry.getGeographicTransform().translate[1]);
+        Transform scale = Geography.getMapScale(_geometry.getGeographicTransform());
+        appendHeader(builder, pDate, pOverall, _colorScale, _geometry.getMaxX(), _geometry.getMaxY(), scale, 1.0);
+        appendRelativeGroupStart(builder, translate, scale, _geometry.getMaxY());
+
+        for (int county = 0; county < _geometry.getCountyCount(); ++county)
+        {
+          if ((_stateId >= 0) && (_geometry.getStateId(county) != _stateId)) continue;
+          if (!_countyIds.contains(_geometry.getCountyId(county))) continue;
+
+          String style = getPathStyle(_colorScale, (pSlots[county] < 0) ? Double.NaN : pValues[pSlots[county]]);
+          vertices += _geometry.appendCounty(county, builder, style, scratch);
+
+          if (builder.length() >= 1 << 16)
+          {
+            output.append(builder);
+            builder.setLength(0);
+          }
+        }
+
+        builder.append("\t</g>\n</svg>").append(pAfter);
+        output.append(builder);
       }
-      catch (Exception e)
+      finally
       {
-        return null;
+        counter.close();
       }
+
+      ++_filesWritten;
+      _bytesWritten += counter.getCount();
+      return vertices;
     }
   }
 
   /**
-   * Simple class to write files; incuded here for simplicity's sake
+   * Counts the bytes that go through it
    */
-  static public class EasyWriter
+  static public class CountingOutputStream extends FilterOutputStream
   {
-    private File           file_      = null;
-    private BufferedWriter writer_    = null;
-    private boolean        writeable_ = false;
+    private long _count = 0;
 
-    public String         getFileName() { return file_ == null ? "" : file_.getAbsolutePath(); }
-    public File           getFile    () { return file_     ; }
-    public BufferedWriter getWriter  () { return writer_   ; }
-    public boolean        isWriteable() { return writeable_; }
+    public long getCount() { return _count; }
 
-    static private long s_total_LinesWritter = 0L;
-    static public long getTotalLinesWritten() { return s_total_LinesWritter; }
+    public CountingOutputStream(OutputStream pOutput)
+    {
+      super(pOutput);
+    }
 
-    public static void dumpStringToFile(File    pFile,
-                                        boolean pAppend,
-                                        String  pMessage)
+    public void write(int pByte) throws IOException
     {
-      try
+      out.write(pByte);
+      ++_count;
+    }
+
+    public void write(byte[] pBytes, int pOffset, int pLength) throws IOException
+    {
+      out.write(pBytes, pOffset, pLength);
+      _count += pLength;
+    }
+  }
+
+  /**
+   * Draws the choropleth straight to pixels for print sized exports.  The frame is cut into
+   * horizontal bands that are filled at the same time, one per worker: each band keeps only the
+   * counties whose box overlaps it, builds their edge lists clipped to its rows and fills them
+   * with SUBSAMPLES scanlines per row and exact horizontal coverage for anti-aliasing.  Sample
+   * positions depend only on the row, never the band, and every band writes its own rows of
+   * one shared pixel array, so there's nothing to blend where bands meet.  County outlines are
+   * transformed to pixels once, when the rasteriser is made, and reused for every frame
+   */
+  static public class BandRasterizer
+  {
+    static private final int SUBSAMPLES = 4;
+
+    private int _width;
+    private int _height;
+    private int[] _mapSize;
+    private double _pixelScale;
+    private int _bands;
+    private int[] _countyIds;
+    private int[] _stateIds;
+    private float[][][] _rings;     // [county][ring] x, y, x, y ... in pixels
+    private float[][] _bounds;      // [county] min x, min y, max x, max y
+
+    public int getWidth() { return _width; }
+    public int getHeight() { return _height; }
+    public int getBands() { return _bands; }
+
+    /**
+     * @param pWidth image width in pixels; the height keeps the SVG's aspect ratio
+     * @param pBands number of bands, normally the number of cores
+     */
+    public BandRasterizer(Geography pGeography, int pWidth, int pBands)
+    {
+      _mapSize = getMapSize(pGeography.getMaxX(), pGeography.getMaxY(), pGeography.getScale());
+
+      _width = pWidth;
+      _pixelScale = (double) pWidth / (_mapSize[0] + 2 * s_mapBuffer);
+      _height = (int) Math.round((_mapSize[1] + 2 * s_mapBuffer) * _pixelScale);
+      _bands = Math.max(1, Math.min(pBands, _height));
+
+      List<CountyPolygon> counties = new ArrayList<>();
+      for (CountyPolygon countyPolygon : pGeography.getCountyPolygonByIdMap().values())
       {
-        pFile.getParentFile().mkdirs();
-        EasyWriter writer = new EasyWriter(pFile, pAppend);
-        writer.writeLine(pMessage);
-        writer.close();
+        if (pGeography.getCountyByIdMap().get(countyPolygon.getCountyId()) != null) counties.add(countyPolygon);
       }
-      catch (Exception e)
+
+      _countyIds = new int[counties.size()];
+      _stateIds = new int[counties.size()];
+      _rings = new float[counties.size()][][];
+      _bounds = new float[counties.size()][];
+
+      for (int county = 0; county < counties.size(); ++county)
       {
-        e.printStackTrace();
+        CountyPolygon countyPolygon = counties.get(county);
+        _countyIds[county] = countyPolygon.getCountyId();
+        _stateIds[county] = countyPolygon.getStateId();
+
+        float[] bounds = { Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        List<float[]> rings = new ArrayList<>();
+
+        for (Arc arc : countyPolygon.getArcs())
+        {
+          if ((arc.getPoints() == null) || (arc.getPoints().size() < 3)) continue;
+
+          float[] ring = new float[2 * arc.getPoints().size()];
+          for (int point = 0; point < arc.getPoints().size(); ++point)
+          {
+            float x = (float) (pGeography.transformedX(arc.getPoints().get(point).getX()) * _pixelScale);
+            float y = (float) (pGeography.transformedY(arc.getPoints().get(point).getY()) * _pixelScale);
+            ring[2 * point] = x;
+            ring[2 * point + 1] = y;
+
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.max(bounds[2], x);
+            bounds[3] = Math.max(bounds[3], y);
+          }
+          rings.add(ring);
+        }
+
+        _rings[county] = rings.toArray(new float[0][]);
+        _bounds[county] = bounds;
       }
     }
 
-    public static void dumpStringToFilename(String  pFilename,
-                                            boolean pAppend,
-                                            String  pMessage)
+    /**
+     * Fills the counties over a background tinted by pOverall, then draws the label and legend
+     * on top (those are small, so they go through Java2D on the finished image)
+     *
+     * @param pVertices if not null, [0] is incremented by the number of edges filled
+     */
+    public BufferedImage render(RiskMatrix pMatrix, double[] pValues, double pOverall, ColorScale pColorScale, int pStateId, String pLabel, long[] pVertices)
     {
-      if ((pFilename == null) || pFilename.isEmpty())
+      int[] pixels = new int[_width * _height];
+      Arrays.fill(pixels, blend(0xffffff, pColorScale.getRgb(pOverall), 0.25));
+
+      int[] colours = new int[_countyIds.length];
+      float[] opacities = new float[_countyIds.length];
+      for (int county = 0; county < _countyIds.length; ++county)
       {
-        return;
+        int slot = pMatrix.getSlot(_countyIds[county]);
+        double value = (slot < 0) ? Double.NaN : pValues[slot];
+        colours[county] = pColorScale.getRgb(value);
+        opacities[county] = (float) pColorScale.getOpacity(value);
       }
 
-      dumpStringToFile(new File(pFilename), pAppend, pMessage);
-    }
+      int bandHeight = (_height + _bands - 1) / _bands;
+      long edges = IntStream.range(0, _bands).parallel()
+        .mapToLong(band -> fillBand(pixels, band * bandHeight, Math.min(_height, (band + 1) * bandHeight), colours, opacities, pStateId))
+        .sum();
 
-    public EasyWriter()
-    {
+      BufferedImage image = new BufferedImage(_width, _height, BufferedImage.TYPE_INT_RGB);
+      image.setRGB(0, 0, _width, _height, pixels, 0, _width);
+      drawLegend(image, pLabel, pColorScale);
+
+      if (pVertices != null) pVertices[0] += edges;
+      return image;
     }
 
-    public EasyWriter(String pFileName)
+    /**
+     * Rows pTop .. pBottom - 1
+     *
+     * @return number of edges used
+     */
+    private long fillBand(int[] pPixels, int pTop, int pBottom, int[] pColours, float[] pOpacities, int pStateId)
     {
-      this(new File(pFileName));
+      float[] coverage = new float[_width + 1];
+      float[] edgeX = new float[64];
+      float[] edgeTop = new float[64];
+      float[] edgeBottom = new float[64];
+      float[] edgeSlope = new float[64];
+      float[] crossings = new float[64];
+      long edgeTotal = 0;
+
+      for (int county = 0; county < _countyIds.length; ++county)
+      {
+        float[] bounds = _bounds[county];
+        if ((bounds[3] < pTop) || (bounds[1] >= pBottom) || (bounds[0] >= _width) || (bounds[2] < 0)) continue;
+        if ((pStateId >= 0) && (_stateIds[county] != pStateId)) continue;
+
+        // Edge list for this band: only edges that reach into its rows, horizontal ones dropped
+        int edges = 0;
+        for (float[] ring : _rings[county])
+        {
+          int points = ring.length / 2;
+          for (int point = 0; point < points; ++point)
+          {
+            int next = (point + 1) % points;
+            float x0 = ring[2 * point];
+            float y0 = ring[2 * point + 1];
+            float x1 = ring[2 * next];
+            float y1 = ring[2 * next + 1];
+
+            if (y0 == y1) continue;
+            if (y0 > y1)
+            {
+              float swap = x0; x0 = x1; x1 = swap;
+              swap = y0; y0 = y1; y1 = swap;
+            }
+            if ((y1 <= pTop) || (y0 >= pBottom)) continue;
+
+            if (edges == edgeX.length)
+            {
+              edgeX = Arrays.copyOf(edgeX, 2 * edges);
+              edgeTop = Arrays.copyOf(edgeTop, 2 * edges);
+              edgeBottom = Arrays.copyOf(edgeBottom, 2 * edges);
+              edgeSlope = Arrays.copyOf(edgeSlope, 2 * edges);
+            }
+            edgeSlope[edges] = (x1 - x0) / (y1 - y0);
+            edgeX[edges] = x0;
+            edgeTop[edges] = y0;
+            edgeBottom[edges] = y1;
+            ++edges;
+          }
+        }
+        if (edges == 0) continue;
+        if (crossings.length < edges) crossings = new float[edges];
+        edgeTotal += edges;
+
+        int left = Math.max(0, (int) Math.floor(bounds[0]));
+        int right = Math.min(_width - 1, (int) Math.floor(bounds[2]));
+        int top = Math.max(pTop, (int) Math.floor(bounds[1]));
+        int bottom = Math.min(pBottom - 1, (int) Math.floor(bounds[3]));
+
+        for (int row = top; row <= bottom; ++row)
+        {
+          Arrays.fill(coverage, left, right + 2, 0.0f);
+
+          for (int sample = 0; sample < SUBSAMPLES; ++sample)
+          {
+            float scanY = row + (sample + 0.5f) / SUBSAMPLES;
+
+            int count = 0;
+            for (int edge = 0; edge < edges; ++edge)
+            {
+              if ((edgeTop[edge] <= scanY) && (scanY < edgeBottom[edge]))
+              {
+                crossings[count++] = edgeX[edge] + (scanY - edgeTop[edge]) * edgeSlope[edge];
+              }
+            }
+            Arrays.sort(crossings, 0, count);
+
+            // Even-odd, so holes (which every ring of a county shares the edge list with) stay empty
+            for (int crossing = 0; crossing + 1 < count; crossing += 2)
+            {
+              addSpan(coverage, crossings[crossing], crossings[crossing + 1], 1.0f / SUBSAMPLES);
+            }
+          }
+
+          int offset = row * _width;
+          for (int column = left; column <= right; ++column)
+          {
+            float alpha = Math.min(1.0f, coverage[column]) * pOpacities[county];
+            if (alpha > 0.0f) pPixels[offset + column] = blend(pPixels[offset + column], pColours[county], alpha);
+          }
+        }
+      }
+      return edgeTotal;
     }
 
-    public EasyWriter(File pFile)
+    /**
+     * Adds pWeight times the part of each pixel that pFrom .. pTo covers
+     */
+    private void addSpan(float[] pCoverage, float pFrom, float pTo, float pWeight)
     {
-      this (pFile, false);
+      float from = Math.max(0.0f, pFrom);
+      float to = Math.min(_width, pTo);
+      if (from >= to) return;
+
+      int first = (int) from;
+      int last = (int) to;
+
+      if (first == last)
+      {
+        pCoverage[first] += (to - from) * pWeight;
+        return;
+      }
+
+      pCoverage[first] += (first + 1 - from) * pWeight;
+      for (int pixel = first + 1; pixel < last; ++pixel) pCoverage[pixel] += pWeight;
+      pCoverage[last] += (to - last) * pWeight;
     }
 
-    public EasyWriter(File    pFile,
-                      boolean pAppend)
+    static private int blend(int pUnder, int pOver, double pAlpha)
     {
-      file_ = pFile;
-      open(pAppend);
+      int red = (int) Math.round(((pUnder >> 16) & 0xff) * (1 - pAlpha) + ((pOver >> 16) & 0xff) * pAlpha);
+      int green = (int) Math.round(((pUnder >> 8) & 0xff) * (1 - pAlpha) + ((pOver >> 8) & 0xff) * pAlpha);
+      int blue = (int) Math.round((pUnder & 0xff) * (1 - pAlpha) + (pOver & 0xff) * pAlpha);
+      return (red << 16) | (green << 8) | blue;
     }
 
-    public EasyWriter(File   pFile,
-                      String pOutput)
+    /**
+     * Date label and legend where appendHeader puts them, scaled up to the image
+     */
+    private void drawLegend(BufferedImage pImage, String pLabel, ColorScale pColorScale)
     {
-      file_ = pFile;
-      open();
-      writeLine(pOutput);
-      close();
-    }
+      int width = _mapSize[0];
+      int height = _mapSize[1];
 
+      Graphics2D graphics = pImage.createGraphics();
+      graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+      graphics.scale(_pixelScale, _pixelScale);
 
-    public boolean open()
-    {
-      return open(false);
+      graphics.setColor(Color.BLACK);
+      graphics.setFont(new Font(Font.SERIF, Font.ITALIC, 40));
+      graphics.drawString(pLabel, (float) Math.rint(width * 0.85), (float) Math.rint(height));
+
+      double rx = width * 0.925;
+      double ry = height * 0.5;
+      double sx = width / 30;
+      double sy = height / 30;
+
+      graphics.setFont(new Font(Font.SERIF, Font.ITALIC, 20));
+      double[] legendValues = pColorScale.getLegendValues();
+      String[] legendLabels = pColorScale.getLegendLabels();
+
+      for (int legend = 0; legend < legendValues.length; ++legend)
+      {
+        if (legend > 0) ry += sy * 1.5;
+
+        graphics.setColor(new Color(pColorScale.getRgb(legendValues[legend])));
+        graphics.fill(new Rectangle2D.Double(rx, ry, sx, sy));
+        graphics.setColor(Color.BLACK);
+        graphics.drawString(legendLabels[legend], (float) (rx + sx + 10), (float) (ry + sy * 0.6));
+      }
+      graphics.dispose();
     }
+  }
 
-    public boolean open(boolean pAppend)
+  /**
+   * One of the sizes a multi-size run writes (see --sizes).  Every county's rings are run
+   * through the size's scale and translate once, into a double[] per ring, and the paths are
+   * formatted from those once too, so a frame at any size is just the paths plus styles.  With
+   * snapping the coordinates are rounded to whole pixels and any vertex that lands on the one
+   * before it is dropped, which is most of them in a thumbnail
+   */
+  static public class OutputSize
+  {
+    static private final String SIZE_NAMES = "full, 4k, 1080p, 720p, thumb, WIDTHxHEIGHT or WIDTH, optionally followed by :snap";
+
+    private String _name;
+    private Transform _scale;
+    private double _factor;
+    private boolean _snap;
+    private List<CountyGeometry> _countyGeometry;
+
+    public String getName() { return _name; }
+
+    /**
+     * Topology units -> pixels at this size
+     */
+    public Transform getScale() { return _scale; }
+
+    /**
+     * Size relative to the normal frame
+     */
+    public double getFactor() { return _factor; }
+    public boolean isSnap() { return _snap; }
+    public List<CountyGeometry> getCountyGeometry() { return _countyGeometry; }
+
+    /**
+     * @param pSpec "full", "4k", "1080p", "720p", "thumb", WIDTHxHEIGHT or WIDTH, optionally
+     *              followed by ":snap"; named and boxed sizes are fitted inside the box
+     */
+    static public OutputSize parse(Geography pGeography, String pSpec)
     {
-      writeable_ = false;
+      String[] parts = pSpec.split(":");
+      boolean snap = (parts.length > 1) && parts[1].equals("snap");
+      if ((parts.length > 2) || ((parts.length > 1) && !snap))
+      {
+        throw new IllegalArgumentException("Unknown output size: " + pSpec + " (" + SIZE_NAMES + ")");
+      }
 
-      try
+      int[] mapSize = getMapSize(pGeography.getMaxX(), pGeography.getMaxY(), pGeography.getScale());
+      int fullWidth = mapSize[0] + 2 * s_mapBuffer;
+      int fullHeight = mapSize[1] + 2 * s_mapBuffer;
+
+      String box;
+      switch (parts[0])
       {
-        file_.getParentFile().mkdirs();
-        writer_ = new BufferedWriter(new FileWriter(file_, pAppend));
+        case "full":  box = fullWidth + "x" + fullHeight; break;
+        case "4k":    box = "3840x2160"; break;
+        case "1080p": box = "1920x1080"; break;
+        case "720p":  box = "1280x720"; break;
+        case "thumb": box = "320x180"; break;
+        default:      box = parts[0];
       }
-      catch (Exception e)
+
+      if (!box.matches("[0-9]+(x[0-9]+)?"))
       {
-        writer_ = null;
-        return false;
+        throw new IllegalArgumentException("Unknown output size: " + pSpec + " (" + SIZE_NAMES + ")");
       }
 
-      writeable_ = true;
+      // The s_mapBuffer margins stay the same at every size; only the map is scaled
+      String[] dimensions = box.split("x");
+      double factor = (Double.valueOf(dimensions[0]) - 2 * s_mapBuffer) / mapSize[0];
+      if (dimensions.length > 1) factor = Math.min(factor, (Double.valueOf(dimensions[1]) - 2 * s_mapBuffer) / mapSize[1]);
+      if (factor <= 0)
+      {
+        throw new IllegalArgumentException("Output size " + pSpec + " leaves no room for the map inside its " + s_mapBuffer + "px margins");
+      }
 
-      return writeable_;
+      return new OutputSize(pGeography, parts[0] + (snap ? "-snap" : ""), factor, snap);
     }
 
-    public void close()
+    /**
+     * @param pFactor size relative to the normal frame
+     */
+    public OutputSize(Geography pGeography, String pName, double pFactor, boolean pSnap)
     {
-      if (writer_ != null)
+      _name = pName;
+      _snap = pSnap;
+      _factor = pFactor;
+      _scale = new Transform(pGeography.getScale().getX() * pFactor, pGeography.getScale().getY() * pFactor);
+
+      PhaseTimer timer = PhaseTimer.startLoad("size " + pName);
+      List<CountyGeometry> countyGeometry = new ArrayList<>();
+      long vertices = 0;
+      long length = 0;
+
+      // Same counties, in the same order, as Geography.getCountyGeometry
+      for (CountyPolygon countyPolygon : pGeography.getCountyPolygonByIdMap().values())
       {
-        try
+        if (pGeography.getCountyByIdMap().get(countyPolygon.getCountyId()) == null) continue;
+
+        List<double[]> rings = new ArrayList<>();
+        for (Arc arc : countyPolygon.getArcs())
         {
-          writer_.flush();
-          writer_.close();
+          if (arc.getPoints() == null) continue;
+
+          double[] ring = transform(arc.getPoints(), pGeography);
+          if (ring.length >= 4) rings.add(ring);
         }
-        catch (IOException e)
+
+        String[] paths = new String[rings.size()];
+        int countyVertices = 0;
+        for (int ring = 0; ring < paths.length; ++ring)
         {
+          paths[ring] = format(rings.get(ring));
+          countyVertices += rings.get(ring).length / 2;
+          length += paths[ring].length();
         }
+
+        countyGeometry.add(new CountyGeometry(countyPolygon.getCountyId(), countyPolygon.getStateId(), paths, countyVertices));
+        vertices += countyVertices;
       }
-      writeable_ = false;
+
+      _countyGeometry = Collections.unmodifiableList(countyGeometry);
+      timer.stop(vertices, length);
     }
 
-    public void writeLine(String pLine)
+    /**
+     * Pixels for each point, the way Geography.transformedX / transformedY work them out but at
+     * this size's scale; when snapping, a point that rounds onto the one before is dropped
+     */
+    private double[] transform(List<Point> pPoints, Geography pGeography)
     {
-      if (!writeable_)
-      {
-        return;
-      }
-      try
+      double[] ring = new double[2 * pPoints.size()];
+      int count = 0;
+
+      for (Point point : pPoints)
       {
-        writer_.write(pLine.endsWith("\n") ? pLine : pLine + "\n");
-        s_total_LinesWritter += pLine.split("\n").length;
+        double x = s_mapBuffer + (point.getX() + pGeography.getTranslate().getX()) * _scale.getX();
+        double y = s_mapBuffer + (pGeography.getMaxY() - (point.getY() + pGeography.getTranslate().getY())) * _scale.getY();
+
+        if (_snap)
+        {
+          x = Math.rint(x);
+          y = Math.rint(y);
+          if ((count > 0) && (ring[2 * count - 2] == x) && (ring[2 * count - 1] == y)) continue;
+        }
+
+        ring[2 * count] = x;
+        ring[2 * count + 1] = y;
+        ++count;
       }
-      catch (Exception e)
+
+      // Snapped down to fewer than 3 distinct points, i.e. smaller than a pixel
+      if (_snap && (count < 3)) return new double[0];
+
+      return (count == pPoints.size()) ? ring : Arrays.copyOf(ring, 2 * count);
+    }
+
+    /**
+     * '<path d="M...L...' as CountyGeometry has it; snapped coordinates are written as integers
+     */
+    private String format(double[] pRing)
+    {
+      StringBuilder builder = new StringBuilder();
+
+      for (int point = 0; point < pRing.length / 2; ++point)
       {
+        builder.append((point == 0) ? "\t\t<path d=\"M" : "L");
+
+        if (_snap)
+        {
+          builder.append((long) pRing[2 * point]).append(',').append((long) pRing[2 * point + 1]);
+        }
+        else
+        {
+          builder.append(String.format("%f,%f", pRing[2 * point], pRing[2 * point + 1]));
+        }
       }
+      return builder.toString();
     }
   }
 
   /**
-   * Historical data
+   * One output of a batch run: a reader (metric, colour scale, filters) and the directory,
+   * relative to the sink, its svg/ and html/ files go under
    */
-  public static class RiskData
+  static public class RenderTarget
   {
-    private static List<String> s_dates = new ArrayList<>();
-    public static List<String> getDates() { return s_dates; }
+    private CovidReader _reader;
+    private String _output;
 
-    private static HashMap<Integer, RiskData> s_riskData = new HashMap<>();
-    public static HashMap<Integer, RiskData> getRiskData() { return s_riskData; }
+    public CovidReader getReader() { return _reader; }
+    public String getOutput() { return _output; }
 
-    static public void setup()
+    public RenderTarget(CovidReader pReader, String pOutput)
     {
-      String[] lines = EasyReader.fetchContents("./riskData.txt").split("\n");
-      String[] headerColumns = lines[0].split("\t");
-
-      for (int loop = 2; loop < headerColumns.length; ++loop)
-      {
-        s_dates.add(headerColumns[loop]);
-      }
-
-      List<String> per100KLines = new ArrayList<>();
+      _reader = pReader;
+      _output = pOutput;
+    }
 
-      for (int lineIndex = 1; lineIndex < lines.length; ++lineIndex)
-      {
-        String line = lines[lineIndex];
-        if (!line.contains("Daily new cases per 100k people")) continue;
+    /**
+     * @param pSpec metric[:scale[:output]], e.g. "roll7", "wow:growth" or "total-cases:log:totals";
+     *              the output defaults to the metric name
+     */
+    static public RenderTarget parse(Dataset pDataset, String pSpec, int pStateId, PathEncoding pEncoding)
+    {
+      String[] parts = pSpec.split(":");
+      RenderMetric metric = RenderMetric.forName(parts[0]);
+      ColorScale scale = (parts.length > 1) ? ColorScale.forName(parts[1]) : metric.getDefaultScale();
+      String output = (parts.length > 2) ? parts[2] : metric.getName();
+
+      CovidReader reader = new CovidReader(pDataset, metric, scale, pStateId);
+      reader.setEncoding(pEncoding);
+      return new RenderTarget(reader, output);
+    }
+  }
 
-        per100KLines.add(line);
-      }
+  /**
+   * Renders every target for one date in a single walk over the county geometry: each county's
+   * slot is looked up once and each of its paths is appended to every target's frame with that
+   * target's style.  The targets must share an encoding and state filter (RenderTarget.parse
+   * gives them the same ones).  Each target writes through its own reader's sink
+   */
+  static public void processTargets(String pDate, List<RenderTarget> pTargets) throws IOException
+  {
+    System.out.println(pDate);
+    PhaseTimer frameTimer = PhaseTimer.startFrame(pDate);
+    PhaseTimer timer = PhaseTimer.startPhase(pDate, "svg");
 
-      for (String line : per100KLines)
-      {
-        RiskData riskData = new RiskData(headerColumns, line.split("\t"));
-        s_riskData.put(riskData.getCountyId(), riskData);
-      }
-    }
+    CovidReader first = pTargets.get(0).getReader();
+    Geography geography = first.getDataset().getGeography();
+    DerivedSeries series = first.getDataset().getDerivedSeries();
+    RiskMatrix matrix = series.getMatrix();
+    int dateIndex = matrix.getDateIndex(pDate);
+    int targets = pTargets.size();
 
-    private String _countyName;
-    public String getCountyName() { return _countyName; }
+    StringBuilder[] builders = new StringBuilder[targets];
+    double[][] values = new double[targets][];
+    String[] styles = new String[targets];
 
-    private int _countyId;
-    public int getCountyId() { return _countyId; }
+    for (int target = 0; target < targets; ++target)
+    {
+      CovidReader reader = pTargets.get(target).getReader();
+      values[target] = series.getColumn(reader.getMetric(), dateIndex);
 
-    private HashMap<String, Double> _per100KValueMap = new HashMap<>();
-    public HashMap<String, Double> getPer100KValueMap() { return _per100KValueMap; }
+      builders[target] = new StringBuilder(geography.getSvgCapacity());
+      reader.appendHeader(builders[target], pDate, series.getNationalMean(reader.getMetric(), dateIndex));
+      reader.appendGroupStart(builders[target]);
+    }
 
-    public RiskData(String[] pHeaderColumns, String[] pDataColumns)
+    long vertices = 0;
+    for (CountyGeometry countyGeometry : geography.getCountyGeometry(first.getEncoding()))
     {
-      _countyName = pDataColumns[0].replace("\"", "");
-      CountyInfo info = s_countyByNameMap.get(_countyName);
-      if (info == null)
-      {
-        System.out.println(String.format("Cannot find county: '%s'", _countyName));
-        _countyId = -1;
-      }
-      else
+      if ((first.getStateId() >= 0) && (countyGeometry.getStateId() != first.getStateId())) continue;
+
+      int slot = matrix.getSlot(countyGeometry.getCountyId());
+      for (int target = 0; target < targets; ++target)
       {
-        _countyId = s_countyByNameMap.get(_countyName).getCountyId();
+        styles[target] = pTargets.get(target).getReader().getPathStyle((slot < 0) ? Double.NaN : values[target][slot]);
       }
 
-      for (int loop = 2; (loop < pHeaderColumns.length) && (loop < pDataColumns.length); ++loop)
+      for (String path : countyGeometry.getPaths())
       {
-        _per100KValueMap.put(pHeaderColumns[loop], Double.valueOf(pDataColumns[loop]));
+        for (int target = 0; target < targets; ++target)
+        {
+          builders[target].append(path).append(styles[target]);
+        }
       }
+      vertices += countyGeometry.getVertices();
     }
 
-    public String toString()
+    long bytes = 0;
+    for (StringBuilder builder : builders)
     {
-      return String.format("County: %s/%d [%d]", getCountyName(), getCountyId(), getPer100KValueMap().values().size());
+      builder.append("\t</g>\n</svg>");
+      bytes += builder.length();
     }
-  }
+    timer.stop(vertices, bytes);
 
-  private static HashMap<Integer, CountyInfo> s_countyByIdMap;
-  private static HashMap<String, CountyInfo> s_countyByNameMap;
-  private static HashMap<Integer, CountyPolygon> s_countyPolygonByIdMap;
-  private static List<Arc> s_arcList;
-
-  private static Transform s_scale;
-  private static Transform s_translate;
+    timer = PhaseTimer.startPhase(pDate, "write");
+    int frame = first._frameCount.getAndIncrement();
+    for (int target = 0; target < targets; ++target)
+    {
+      RenderTarget renderTarget = pTargets.get(target);
+      String svg = builders[target].toString();
+      builders[target] = null;
 
-  static
-  {
-    s_topologyJson = new Gson().fromJson(EasyReader.fetchContents("./covid_topology.json"), TopologyJson.class);
+      renderTarget.getReader().writeOutput(String.format("%s/svg/testCovid_%03d.svg", renderTarget.getOutput(), frame), svg);
+      renderTarget.getReader().writeOutput(String.format("%s/html/testCovid_%s.html", renderTarget.getOutput(), pDate), renderTarget.getReader().wrapHtml(svg));
+    }
+    timer.stop(targets * 2, bytes * 2);
 
-    double scaleXFactor = 4 * 8;
-    double scaleYFactor = 5 * 8;
-    s_scale = new Transform(scaleXFactor * s_topologyJson.transform.scale[0], scaleYFactor * s_topologyJson.transform.scale[1]);
-    s_translate = new Transform(s_topologyJson.transform.translate[0], s_topologyJson.transform.translate[1]);
+    frameTimer.stop(vertices, bytes * 2);
+  }
 
-    s_arcList = new ArrayList<>();
+  /**
+   * Renders the frame for a date of this reader's metric; values (and the average for the
+   * background) come from the precomputed series
+   */
+  public String renderSvg(String pDate, long[] pVertices)
+  {
+    int dateIndex = _dataset.getDerivedSeries().getMatrix().getDateIndex(pDate);
+    double[] values = _dataset.getDerivedSeries().getColumn(_metric, dateIndex);
+    double overall = _dataset.getDerivedSeries().getNationalMean(_metric, dateIndex);
 
-    int[][][] arcs = s_topologyJson.arcs;
+    return renderSvg(pDate, values, overall, pVertices);
+  }
 
-    for (int loop = 0; loop < arcs.length; ++loop)
-    {
-      s_arcList.add(new Arc(arcs[loop]));
-    }
+  public String wrapHtml(String pSvg)
+  {
+    return "<html>\n<body>\n" + pSvg + "\n</body>\n</html>";
+  }
 
-    s_jobsDataJson = new Gson().fromJson(EasyReader.fetchContents("./covid_county-data.json"), JobsDataJson.class);
+  /**
+   * Builds one frame's SVG; pValues is indexed by RiskMatrix slot.  Only reads shared state,
+   * so it's safe to call from several threads at once
+   *
+   * @param pVertices if not null, [0] is incremented by the number of vertices emitted
+   */
+  public String renderSvg(String pLabel, double[] pValues, double pOverall, long[] pVertices)
+  {
+    StringBuilder builder = new StringBuilder(getGeography().getSvgCapacity());
+    long vertices = 0;
 
-    s_countyByIdMap = new HashMap<>();
-    s_countyByNameMap = new HashMap<>();
+    appendHeader(builder, pLabel, pOverall);
 
-    for (int loop = 0; loop < s_jobsDataJson.results[0].result.data.dsr.DS[0].PH[0].DM0.length; ++loop)
+    if (_bubbleSize != null)
     {
-      CountyInfo countyInfo = new CountyInfo(s_jobsDataJson.results[0].result.data.dsr.DS[0].PH[0].DM0[loop]);
-      s_countyByIdMap.put(countyInfo.getCountyId(), countyInfo);
-      s_countyByNameMap.put(countyInfo.getCounty(), countyInfo);
-    }
-
-    s_countyPolygonByIdMap = new HashMap<>();
+      vertices += appendBubbles(builder, pValues);
+      builder.append("</svg>");
 
-    for (int loop = 0; loop < s_topologyJson.objects.counties20m.geometries.length; ++loop)
-    {
-      CountyPolygon countyPolygon = new CountyPolygon(s_topologyJson.objects.counties20m.geometries[loop]);
-      s_countyPolygonByIdMap.put(countyPolygon.getCountyId(), countyPolygon);
+      if (pVertices != null) pVertices[0] += vertices;
+      return builder.toString();
     }
 
-    RiskData.setup();
-  }
+    appendGroupStart(builder);
+    vertices += appendCounties(builder, getGeography().getCountyGeometry(_encoding), pValues);
+    builder.append("\t</g>\n</svg>");
 
-  public static void main(String[] args)
-  {
-    CovidReader reader = new CovidReader();
+    if (pVertices != null) pVertices[0] += vertices;
+    getGeography().noteSvgLength(builder.length());
 
-    for (String date : RiskData.getDates())
-    {
-      reader.process(date);
-    }
+    return builder.toString();
   }
 
-  public CovidReader()
+  /**
+   * Same frame at another size, from its pre-transformed paths (always absolute; bubbles
+   * aren't drawn at other sizes)
+   */
+  public String renderSvg(OutputSize pSize, String pLabel, double[] pValues, double pOverall, long[] pVertices)
   {
+    StringBuilder builder = new StringBuilder(getGeography().getSvgCapacity());
+    Geography geography = getGeography();
 
-  }
+    appendHeader(builder, pLabel, pOverall, _colorScale, geography.getMaxX(), geography.getMaxY(), pSize.getScale(), pSize.getFactor());
+    builder.append("\t<g style=\"stroke-width:0.05; stroke: rgb(255, 255, 255); fill: rgb(180, 180, 180);\">\n");
+    long vertices = appendCounties(builder, pSize.getCountyGeometry(), pValues);
+    builder.append("\t</g>\n</svg>");
 
-  static int svgCount = 0;
-  static int s_mapBuffer = 20;
+    if (pVertices != null) pVertices[0] += vertices;
+    return builder.toString();
+  }
 
-  public void process(String pDate)
+  /**
+   * Each county's paths closed with the style for its value; pValues is indexed by RiskMatrix slot
+   *
+   * @return number of vertices written
+   */
+  private long appendCounties(StringBuilder pBuilder, List<CountyGeometry> pCountyGeometry, double[] pValues)
   {
-    System.out.println(pDate);
-    StringBuilder outerBuilder = new StringBuilder();
-    StringBuilder builder = new StringBuilder();
-    outerBuilder.append("<html>\n<body>\n");
-
-    int width = (int) Math.ceil(s_maxX * s_scale.getX());
-    int height = (int) Math.ceil(s_maxY * s_scale.getY());
+    RiskMatrix matrix = _dataset.getDerivedSeries().getMatrix();
+    long vertices = 0;
 
-    if (width%2 != 0) ++width;
-    if (height%2 != 0) ++height;
-
-    /**
-     * Calculate average cases per 100K
-     */
+    for (CountyGeometry countyGeometry : pCountyGeometry)
+    {
+      if ((_stateId >= 0) && (countyGeometry.getStateId() != _stateId)) continue;
 
-    double per100KTotal = 0.0;
-    int exceptions = 0;
+      int slot = matrix.getSlot(countyGeometry.getCountyId());
+      String style = getPathStyle((slot < 0) ? Double.NaN : pValues[slot]);
 
-    for (RiskData riskData : RiskData.getRiskData().values())
-    {
-      try
-      {
-        Double per100K = riskData.getPer100KValueMap().get(pDate);
-        if (per100K != null)
-        {
-          per100KTotal += per100K;
-        }
-        else
-        {
-          ++exceptions;
-        }
-      }
-      catch (Exception e)
+      for (String path : countyGeometry.getPaths())
       {
-        System.out.println(pDate + "/" + riskData);
-        e.printStackTrace();
+        pBuilder.append(path).append(style);
       }
+      vertices += countyGeometry.getVertices();
     }
+    return vertices;
+  }
+
+  /**
+   * Everything before the map itself: size, background tinted by the overall value, date label
+   * and the colour scale's legend
+   */
+  public void appendHeader(StringBuilder pBuilder, String pLabel, double pOverall)
+  {
+    Geography geography = getGeography();
+    appendHeader(pBuilder, pLabel, pOverall, _colorScale, geography.getMaxX(), geography.getMaxY(), geography.getScale(), 1.0);
+  }
 
-    double per100KOverall = per100KTotal / (RiskData.getRiskData().values().size() - exceptions);
+  /**
+   * Same as above for a map pMaxX by pMaxY topology units drawn at pScale, with the text sizes
+   * and offsets multiplied by pTextScale (the legend boxes already follow the map's size)
+   */
+  static public void appendHeader(StringBuilder pBuilder, String pLabel, double pOverall, ColorScale pColorScale, int pMaxX, int pMaxY, Transform pScale, double pTextScale)
+  {
+    int[] size = getMapSize(pMaxX, pMaxY, pScale);
+    int width = size[0];
+    int height = size[1];
 
-    builder.append(String.format("<svg width=\"%d\" height=\"%d\" style=\"position: absolute; margin-top: 0px;\">\n", width + 2*s_mapBuffer, height + 2*s_mapBuffer));
-    builder.append(              "\t<rect width=\"100%\" height=\"100%\" style=\"fill: rgb(255,255,255);\"></rect>\n");
+    pBuilder.append(String.format("<svg width=\"%d\" height=\"%d\" style=\"position: absolute; margin-top: 0px;\">\n", width + 2*s_mapBuffer, height + 2*s_mapBuffer));
+    pBuilder.append(              "\t<rect width=\"100%\" height=\"100%\" style=\"fill: rgb(255,255,255);\"></rect>\n");
 
-    builder.append("\t<rect width=\"100%\" height=\"100%\" " + String.format("style=\"opacity:0.25; fill: %s;\"></rect>\n", getColorForPer100K(per100KOverall)));
+    pBuilder.append("\t<rect width=\"100%\" height=\"100%\" " + String.format("style=\"opacity:0.25; fill: %s;\"></rect>\n", pColorScale.getColor(pOverall)));
 
-    builder.append(String.format("\t<text x=\"%d\" y=\"%d\" style=\"font: italic 40px serif; fill: black;\">%s</text>\n", (int) Math.rint(width*0.85), (int) Math.rint(height), pDate));
+    pBuilder.append(String.format("\t<text x=\"%d\" y=\"%d\" style=\"font: italic %spx serif; fill: black;\">%s</text>\n", (int) Math.rint(width*0.85), (int) Math.rint(height), formatPixels(40 * pTextScale), pLabel));
 
     double rx = width * 0.925;
     double ry = height * 0.5;
@@ -1019,81 +7990,211 @@ public class CovidReader
     double sy = height/30;
     double textYDelta = sy * 0.6;
 
-    builder.append(String.format("\t<rect x=\"%f\" y=\"%f\" width=\"%f\" height=\"%f\" style=\"opacity:1.0; fill: %s;\"></rect>\n", rx, ry, sx, sy, getColorForPer100K(0.5)));
-    builder.append(String.format("\t<text x=\"%f\" y=\"%f\" style=\"font: italic 20px serif; fill: black;\">%s</text>\n", rx + sx + 10, ry + textYDelta, "< 1.0"));
+    double[] legendValues = pColorScale.getLegendValues();
+    String[] legendLabels = pColorScale.getLegendLabels();
+
+    for (int legend = 0; legend < legendValues.length; ++legend)
+    {
+      if (legend > 0) ry += sy * 1.5;
+
+      pBuilder.append(String.format("\t<rect x=\"%f\" y=\"%f\" width=\"%f\" height=\"%f\" style=\"opacity:1.0; fill: %s;\"></rect>\n", rx, ry, sx, sy, pColorScale.getColor(legendValues[legend])));
+      pBuilder.append(String.format("\t<text x=\"%f\" y=\"%f\" style=\"font: italic %spx serif; fill: black;\">%s</text>\n", rx + sx + 10 * pTextScale, ry + textYDelta, formatPixels(20 * pTextScale), legendLabels[legend]));
+    }
+  }
 
-    ry += sy * 1.5;
+  /**
+   * Whole numbers without a decimal point, so the normal size's header doesn't change
+   */
+  static private String formatPixels(double pPixels)
+  {
+    return (pPixels == Math.rint(pPixels)) ? Long.toString((long) pPixels) : String.format("%.1f", pPixels);
+  }
 
-    builder.append(String.format("\t<rect x=\"%f\" y=\"%f\" width=\"%f\" height=\"%f\" style=\"opacity:1.0; fill: %s;\"></rect>\n", rx, ry, sx, sy, getColorForPer100K(10)));
-    builder.append(String.format("\t<text x=\"%f\" y=\"%f\" style=\"font: italic 20px serif; fill: black;\">%s</text>\n", rx + sx + 10, ry + textYDelta, "10"));
+  /**
+   * Width and height of the map itself (rounded up to even), without the s_mapBuffer margins
+   */
+  static public int[] getMapSize(int pMaxX, int pMaxY, Transform pScale)
+  {
+    int width = (int) Math.ceil(pMaxX * pScale.getX());
+    int height = (int) Math.ceil(pMaxY * pScale.getY());
 
-    ry += sy * 1.5;
+    if (width%2 != 0) ++width;
+    if (height%2 != 0) ++height;
 
-    builder.append(String.format("\t<rect x=\"%f\" y=\"%f\" width=\"%f\" height=\"%f\" style=\"opacity:1.0; fill: %s;\"></rect>\n", rx, ry, sx, sy, getColorForPer100K(15)));
-    builder.append(String.format("\t<text x=\"%f\" y=\"%f\" style=\"font: italic 20px serif; fill: black;\">%s</text>\n", rx + sx + 10, ry + textYDelta, "15"));
+    return new int[] { width, height };
+  }
 
-    ry += sy * 1.5;
+  /**
+   * Opens the group the county paths go in
+   */
+  public void appendGroupStart(StringBuilder pBuilder)
+  {
+    if (_encoding == PathEncoding.RELATIVE)
+    {
+      appendRelativeGroupStart(pBuilder, getGeography().getTranslate(), getGeography().getScale(), getGeography().getMaxY());
+    }
+    else
+    {
+      pBuilder.append("\t<g style=\"stroke-width:0.05; stroke: rgb(255, 255, 255); fill: rgb(180, 180, 180);\">\n");
+    }
+  }
 
-    builder.append(String.format("\t<rect x=\"%f\" y=\"%f\" width=\"%f\" height=\"%f\" style=\"opacity:1.0; fill: %s;\"></rect>\n", rx, ry, sx, sy, getColorForPer100K(100)));
-    builder.append(String.format("\t<text x=\"%f\" y=\"%f\" style=\"font: italic 20px serif; fill: black;\">%s</text>\n", rx + sx + 10, ry + textYDelta, "100"));
+  /**
+   * Group for paths in topology units, scaled and flipped into place by the transform
+   */
+  static public void appendRelativeGroupStart(StringBuilder pBuilder, Transform pTranslate, Transform pScale, int pMaxY)
+  {
+    // The stroke is divided by the scale so it comes out the same width on screen
+    pBuilder.append(String.format("\t<g transform=\"%s\" style=\"stroke-width:%f; stroke: rgb(255, 255, 255); fill: rgb(180, 180, 180);\">\n",
+      Geography.getGroupTransform(pTranslate, pScale, pMaxY),
+      0.05 / Math.sqrt(pScale.getX() * pScale.getY())));
+  }
 
-    ry += sy * 1.5;
+  /**
+   * Closes a county path (from CountyGeometry) with the style for its value
+   */
+  public String getPathStyle(double pValue)
+  {
+    return getPathStyle(_colorScale, pValue);
+  }
 
-    builder.append(String.format("\t<rect x=\"%f\" y=\"%f\" width=\"%f\" height=\"%f\" style=\"opacity:1.0; fill: %s;\"></rect>\n", rx, ry, sx, sy, getColorForPer100K(250)));
-    builder.append(String.format("\t<text x=\"%f\" y=\"%f\" style=\"font: italic 20px serif; fill: black;\">%s</text>\n", rx + sx + 10, ry + textYDelta, "250"));
+  static public String getPathStyle(ColorScale pColorScale, double pValue)
+  {
+    return String.format("Z\" opacity=\"%f\" style=\"fill: %s;\"></path>\n", pColorScale.getOpacity(pValue), pColorScale.getColor(pValue));
+  }
 
-    ry += sy * 1.5;
 
-    builder.append(String.format("\t<rect x=\"%f\" y=\"%f\" width=\"%f\" height=\"%f\" style=\"opacity:1.0; fill: %s;\"></rect>\n", rx, ry, sx, sy, getColorForPer100K(500)));
-    builder.append(String.format("\t<text x=\"%f\" y=\"%f\" style=\"font: italic 20px serif; fill: black;\">%s</text>\n", rx + sx + 10, ry + textYDelta, "500"));
+  /**
+   * Proportional symbols: the cached state outlines, then one circle per county at its label
+   * point with area proportional to the size value, biggest first so small ones stay visible
+   *
+   * @return number of elements drawn
+   */
+  private long appendBubbles(StringBuilder pBuilder, double[] pValues)
+  {
+    Geography geography = getGeography();
+    pBuilder.append(geography.getStateOutlineLayer());
 
-    builder.append("\t<g style=\"stroke-width:0.05; stroke: rgb(255, 255, 255); fill: rgb(180, 180, 180);\">\n");
+    RiskMatrix matrix = _dataset.getDerivedSeries().getMatrix();
+    List<CountyPolygon> counties = new ArrayList<>();
+    List<Double> sizes = new ArrayList<>();
+    double maxSize = 0.0;
 
-    for (CountyPolygon countyPolygon : s_countyPolygonByIdMap.values())
+    for (CountyPolygon countyPolygon : geography.getCountyPolygonByIdMap().values())
     {
-      int countyId = countyPolygon.getCountyId();
+      if ((_stateId >= 0) && (countyPolygon.getStateId() != _stateId)) continue;
 
-      CountyInfo countyInfo = s_countyByIdMap.get(countyId);
-      if (countyInfo == null)
+      CountyInfo countyInfo = geography.getCountyByIdMap().get(countyPolygon.getCountyId());
+      if (countyInfo == null) continue;
+
+      double size;
+      if (_bubbleSize == BubbleSize.TOTAL_CASES)
       {
-        System.out.println("Cannot find county: " + countyId);
-        continue;
+        size = countyInfo.getTotalCases();
       }
-
-      for (Arc arc : countyPolygon.getArcs())
+      else
       {
-        if (arc.getPoints() == null) continue;
-
-        Point pointStart = arc.getPoints().get(0);
-        builder.append(String.format("\t\t<path d=\"M%f,%f", transformedX(pointStart.getX()), transformedY(pointStart.getY())));
+        int slot = matrix.getSlot(countyPolygon.getCountyId());
+        size = (slot < 0) ? Double.NaN : pValues[slot];
+      }
 
-        for (int point = 1; point < arc.getPoints().size(); ++point)
-        {
-          Point pointNext = arc.getPoints().get(point);
+      if (!(size > 0)) continue;
 
-          builder.append(String.format("L%f,%f", transformedX(pointNext.getX()), transformedY(pointNext.getY())));
-        }
+      counties.add(countyPolygon);
+      sizes.add(size);
+      if (size > maxSize) maxSize = size;
+    }
 
-        RiskData riskData = RiskData.getRiskData().get(countyId);
+    // Rates are scaled against the top of the legend so frames are comparable; totals
+    // against the biggest county
+    double[] legendValues = ColorScale.RISK.getLegendValues();
+    double scaleTo = ((_bubbleSize == BubbleSize.METRIC) && (_colorScale == ColorScale.RISK)) ? legendValues[legendValues.length - 1] : maxSize;
+    double maxRadius = 40.0;
 
-        Double per100K = riskData.getPer100KValueMap().get(pDate);
+    Integer[] order = new Integer[counties.size()];
+    for (int loop = 0; loop < order.length; ++loop) order[loop] = loop;
+    Arrays.sort(order, (a, b) -> Double.compare(sizes.get(b), sizes.get(a)));
 
-        String color = getColorForPer100K(per100K == null ? -1 : per100K);
-        double opacity = 0.5 + per100K/100;
-        if (opacity > 1) opacity = 1;
+    pBuilder.append("\t<g style=\"stroke-width:0.5; stroke: rgb(255, 255, 255);\">\n");
 
-        builder.append(String.format("Z\" opacity=\"%f\" style=\"fill: %s;\"></path>\n", opacity, color));
-      }
+    for (int index : order)
+    {
+      CountyPolygon countyPolygon = counties.get(index);
+      int slot = matrix.getSlot(countyPolygon.getCountyId());
+      double value = (slot < 0) ? Double.NaN : pValues[slot];
+      double radius = maxRadius * Math.sqrt(Math.min(1.0, sizes.get(index) / scaleTo));
+
+      pBuilder.append(String.format("\t\t<circle cx=\"%.1f\" cy=\"%.1f\" r=\"%.2f\" style=\"fill: %s; opacity: 0.8;\"></circle>\n",
+        s_mapBuffer + (countyPolygon.getLabelX() + geography.getTranslate().getX()) * geography.getScale().getX(),
+        s_mapBuffer + (geography.getMaxY() - (countyPolygon.getLabelY() + geography.getTranslate().getY())) * geography.getScale().getY(),
+        radius,
+        getColorForValue(value)));
     }
 
-    builder.append("\t</g>\n</svg>");
-    outerBuilder.append(builder.toString()).append("\n</body>\n</html>");
+    pBuilder.append("\t</g>\n");
+    return order.length;
+  }
+
+  /**
+   * Colour for a value of this reader's metric; NaN (no data) comes out grey
+   */
+  public String getColorForValue(double pValue)
+  {
+    return _colorScale.getColor(pValue);
+  }
+
+  public double getOpacityForValue(double pValue)
+  {
+    return _colorScale.getOpacity(pValue);
+  }
+
+  /**
+   * Dark red where the front has arrived, fading out the more borders away a county is
+   */
+  static public String getColorForHops(double pHops)
+  {
+    double t = Math.max(0.0, Math.min(1.0, pHops / 8.0));
+
+    int red = (int) Math.rint(180 + 75 * t);
+    int green = (int) Math.rint(235 * t);
+    int blue = (int) Math.rint(200 * t * t);
+    return String.format("rgb(%d, %d, %d)", red, green, blue);
+  }
+
+  /**
+   * Sequential log scale for counts: pale yellow at 1 through to dark red at a million
+   */
+  static public String getColorForCount(double pCount)
+  {
+    double t = (pCount <= 1) ? 0.0 : Math.min(1.0, Math.log10(pCount) / 6.0);
+
+    int red = (int) Math.rint(255 - 115 * t);
+    int green = (int) Math.rint(240 * (1.0 - t));
+    int blue = (int) Math.rint(160 * (1.0 - t) * (1.0 - t));
+    return String.format("rgb(%d, %d, %d)", red, green, blue);
+  }
+
+  /**
+   * Diverging scale for week-over-week growth: green when falling, white when flat, red when
+   * rising, saturating at -100% / +100%
+   */
+  static public String getColorForGrowth(double pGrowth)
+  {
+    double growth = Math.max(-1.0, Math.min(1.0, pGrowth));
 
-    EasyWriter.dumpStringToFilename(String.format("/Users/joseph.wood/Desktop/covidData/svg/testCovid_%03d.svg", svgCount++), false, builder.toString());
-    EasyWriter.dumpStringToFilename(String.format("/Users/joseph.wood/Desktop/covidData/html/testCovid_%s.html", pDate), false, outerBuilder.toString());
+    if (growth < 0)
+    {
+      int fade = (int) Math.rint(255 * (1.0 + growth));
+      return String.format("rgb(%d, 255, %d)", fade, fade);
+    }
+    else
+    {
+      int fade = (int) Math.rint(255 * (1.0 - growth));
+      return String.format("rgb(255, %d, %d)", fade, fade);
+    }
   }
 
-  public String getColorForPer100K(double pPer100K)
+  static public String getColorForPer100K(double pPer100K)
   {
     if (pPer100K < 0)
     {
@@ -1180,14 +8281,4 @@ public class CovidReader
       return color;
     }
   }
-
-  public double transformedX(int pX)
-  {
-    return s_mapBuffer + (pX + s_translate.getX()) * s_scale.getX();
-  }
-
-  public double transformedY(int pY)
-  {
-    return s_mapBuffer + (s_maxY - (pY + s_translate.getY())) * s_scale.getY();
-  }
 }